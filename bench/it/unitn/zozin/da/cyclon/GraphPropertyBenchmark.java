@@ -0,0 +1,110 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Per-node cost of the graph property kernels on a random overlay where
+ * every node has cacheSize neighbors, as a converged Cyclon overlay. The
+ * per-node benchmarks process a block of nodes per invocation, rotating over
+ * the graph, and report the time per node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GraphPropertyBenchmark {
+
+	private static final int BLOCK = ShortestPaths.BLOCK_SIZE;
+
+	@Param({ "1000", "10000", "100000" })
+	int graphSize;
+
+	@Param({ "20", "50" })
+	int cacheSize;
+
+	private AdjacencySnapshot graph;
+	private MeasureSettings settings;
+	private int next;
+
+	@Setup
+	public void setup() {
+		SplittableRandom rand = new SplittableRandom(42);
+		int[][] rows = new int[graphSize][];
+		for (int n = 0; n < graphSize; n++) {
+			int node = n;
+			rows[n] = rand.ints(0, graphSize).filter((m) -> m != node).distinct().limit(Math.min(cacheSize, graphSize - 1)).toArray();
+		}
+		graph = AdjacencySnapshot.fromRows(rows);
+		settings = new MeasureSettings(new Properties(), rand.split());
+
+		// Build the lazy reverse index outside the measurements
+		graph.reverse();
+	}
+
+	private int nextBlock() {
+		int first = next;
+		next += BLOCK;
+		if (next + BLOCK > graphSize)
+			next = 0;
+		return first;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCK)
+	public Object inDegree() {
+		return accumulate(GraphProperty.IN_DEGREE);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCK)
+	public Object clustering() {
+		return accumulate(GraphProperty.CLUSTERING);
+	}
+
+	private Object accumulate(GraphProperty property) {
+		int first = nextBlock();
+		PropertyAccumulator acc = property.newAccumulator(graph, settings);
+		acc.accumulate(first, first + BLOCK);
+		return acc.result();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCK)
+	public long pathLenBfs() {
+		int first = nextBlock();
+		long sum = 0;
+		for (int src = first; src < first + BLOCK; src++)
+			sum += ShortestPaths.distanceSum(graph, src);
+		return sum;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(BLOCK)
+	public long[] pathLenBitParallel() {
+		return ShortestPaths.distanceSums(graph, nextBlock(), BLOCK);
+	}
+
+	/**
+	 * Whole-graph HyperANF run, amortized over all the nodes
+	 */
+	@Benchmark
+	public Estimate pathLenApprox() {
+		return new NeighborhoodFunction(graph, settings.PATH_LEN_APPROX_PRECISION, settings.SEED).averagePathLength();
+	}
+}
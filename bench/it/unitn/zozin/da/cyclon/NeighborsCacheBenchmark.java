@@ -0,0 +1,113 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of the NeighborsCache operations used by a Cyclon shuffle. Every
+ * benchmark leaves the cache full as it found it, so that all the
+ * invocations run on the same cache occupancy as a converged node.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class NeighborsCacheBenchmark {
+
+	// Node ids used to fill the caches
+	private static final int ID_SPACE = 1 << 20;
+
+	@Param({ "20", "50", "100" })
+	int cacheSize;
+
+	@Param({ "5", "8", "16" })
+	int shuffleLength;
+
+	private NeighborsCache cache;
+	private SplittableRandom rand;
+
+	@Setup
+	public void setup() {
+		rand = new SplittableRandom(42);
+		cache = new NeighborsCache(cacheSize, rand.split());
+		while (cache.size() < cacheSize)
+			cache.addNeighbor(rand.nextInt(ID_SPACE), rand.nextInt(cacheSize));
+	}
+
+	private NodeList freshEntries(int count) {
+		NodeList entries = NodeList.EMPTY;
+		for (int i = 0; i < count; i++)
+			entries = entries.with(rand.nextInt(ID_SPACE), 0);
+		return entries;
+	}
+
+	/**
+	 * Random removal, the removed entries are stored back
+	 */
+	@Benchmark
+	public NodeList removeRandomNeighbors() {
+		NodeList removed = cache.removeRandomNeighbors(shuffleLength);
+		cache.addNeighbors(removed);
+		return removed;
+	}
+
+	/**
+	 * Removal of the oldest entry, the entry is stored back as the youngest
+	 */
+	@Benchmark
+	public NodeList removeOldestNeighbor() {
+		cache.increaseNeighborsAge();
+		NodeList oldest = cache.removeOldestNeighbor();
+		cache.addNeighbor(oldest.id(0), 0);
+		return oldest;
+	}
+
+	/**
+	 * Insertion of new entries in the slots freed by a random removal
+	 */
+	@Benchmark
+	public void addNeighbors(Blackhole bh) {
+		NodeList entries = freshEntries(shuffleLength);
+		bh.consume(cache.removeRandomNeighbors(shuffleLength));
+		cache.addNeighbors(entries);
+		// Duplicates may leave free slots
+		while (cache.size() < cacheSize)
+			cache.addNeighbor(rand.nextInt(ID_SPACE), 0);
+	}
+
+	/**
+	 * Cache operations of both sides of a shuffle: the request of the
+	 * initiator, the answer of the destination and the merge of the answer
+	 */
+	@Benchmark
+	public NodeList shuffle() {
+		cache.increaseNeighborsAge();
+		NodeList dest = cache.removeOldestNeighbor();
+		NodeList requestNodes = cache.removeRandomNeighbors(shuffleLength - 1);
+		NodeList replaceable = dest.append(requestNodes, requestNodes.size());
+
+		// Answer of the destination, sampled from the same cache
+		NodeList answer = cache.removeRandomNeighbors(shuffleLength, dest.id(0));
+		cache.addNeighbors(freshEntries(shuffleLength));
+		cache.addNeighbors(answer);
+
+		cache.addNeighbors(replaceable);
+		while (cache.size() < cacheSize)
+			cache.addNeighbor(rand.nextInt(ID_SPACE), 0);
+		return answer;
+	}
+}
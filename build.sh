@@ -8,6 +8,13 @@ cp akka-2.4.4/lib/akka/akka-actor_2.11-2.4.4.jar .
 cp akka-2.4.4/lib/akka/config-1.3.0.jar .
 cp akka-2.4.4/lib/akka/scala-java8-compat_2.11-0.7.0.jar .
 
+# JMH, only needed by the benchmarks (ant bench)
+mkdir -p bench
+wget -P bench https://repo1.maven.org/maven2/org/openjdk/jmh/jmh-core/1.37/jmh-core-1.37.jar
+wget -P bench https://repo1.maven.org/maven2/org/openjdk/jmh/jmh-generator-annprocess/1.37/jmh-generator-annprocess-1.37.jar
+wget -P bench https://repo1.maven.org/maven2/net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar
+wget -P bench https://repo1.maven.org/maven2/org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar
+
 cd ..
 
 ant
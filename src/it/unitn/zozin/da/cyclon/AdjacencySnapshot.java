@@ -0,0 +1,206 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Snapshot of the overlay graph in sparse row format. The out-neighbors of
+ * node n are stored sorted by id in targets[starts[n], ends[n]). Rows may
+ * leave unused slots between them, so that the fixed-capacity rows of
+ * {@link OverlayAdjacency} are read in place. The reverse (in-neighbors)
+ * index and the in-degrees are built only when first requested.
+ */
+public class AdjacencySnapshot {
+
+	private final int[] starts;
+	private final int[] ends;
+	private final int[] targets;
+	private final int edges;
+
+	private volatile AdjacencySnapshot reverse;
+	private volatile int[] inDegrees;
+
+	// Intermediate results shared by the calculations over this snapshot
+	private final ConcurrentHashMap<Object, Object> shared = new ConcurrentHashMap<>();
+
+	private AdjacencySnapshot(int[] starts, int[] ends, int[] targets, int edges) {
+		this.starts = starts;
+		this.ends = ends;
+		this.targets = targets;
+		this.edges = edges;
+	}
+
+	/**
+	 * Build a snapshot from the neighbor ids of every node
+	 *
+	 * @param rows
+	 *            Out-neighbors indexed by node id, a null row is an empty
+	 *            neighborhood
+	 * @return the snapshot
+	 */
+	public static AdjacencySnapshot fromRows(int[][] rows) {
+		int[] offsets = new int[rows.length + 1];
+		for (int n = 0; n < rows.length; n++)
+			offsets[n + 1] = offsets[n] + ((rows[n] != null) ? rows[n].length : 0);
+
+		int[] targets = new int[offsets[rows.length]];
+		for (int n = 0; n < rows.length; n++) {
+			if (rows[n] == null)
+				continue;
+			System.arraycopy(rows[n], 0, targets, offsets[n], rows[n].length);
+			Arrays.sort(targets, offsets[n], offsets[n + 1]);
+		}
+
+		return fromSortedRows(offsets, targets);
+	}
+
+	/**
+	 * Wrap already built CSR arrays, the rows must be sorted by id
+	 *
+	 * @param offsets
+	 * @param targets
+	 * @return the snapshot
+	 */
+	static AdjacencySnapshot fromSortedRows(int[] offsets, int[] targets) {
+		int nodes = offsets.length - 1;
+		return new AdjacencySnapshot(Arrays.copyOf(offsets, nodes), Arrays.copyOfRange(offsets, 1, nodes + 1), targets, offsets[nodes]);
+	}
+
+	/**
+	 * Wrap rows with unused slots between them, without copying them. The
+	 * rows must be sorted by id and not be modified while the snapshot is in
+	 * use.
+	 *
+	 * @param starts
+	 *            First slot of each row
+	 * @param ends
+	 *            Slot after the last neighbor of each row
+	 * @param targets
+	 * @param edges
+	 *            Number of neighbors in all the rows
+	 * @return the snapshot
+	 */
+	static AdjacencySnapshot fromPaddedRows(int[] starts, int[] ends, int[] targets, int edges) {
+		return new AdjacencySnapshot(starts, ends, targets, edges);
+	}
+
+	/**
+	 * @return Number of nodes in the graph
+	 */
+	public int size() {
+		return ends.length;
+	}
+
+	/**
+	 * @return Number of edges in the graph
+	 */
+	public int edges() {
+		return edges;
+	}
+
+	public int outDegree(int node) {
+		return ends[node] - starts[node];
+	}
+
+	/**
+	 * @return The i-th out-neighbor of the node (in increasing id order)
+	 */
+	public int neighbor(int node, int i) {
+		return targets[starts[node] + i];
+	}
+
+	public boolean hasEdge(int from, int to) {
+		return Arrays.binarySearch(targets, starts[from], ends[from], to) >= 0;
+	}
+
+	public int inDegree(int node) {
+		return inDegrees()[node];
+	}
+
+	/**
+	 * @return The in-degree of every node, counted in a single pass over the
+	 *         edges without building the reverse index
+	 */
+	int[] inDegrees() {
+		int[] d = inDegrees;
+		if (d == null) {
+			synchronized (this) {
+				d = inDegrees;
+				if (d == null) {
+					d = new int[size()];
+					for (int n = 0; n < size(); n++)
+						for (int i = starts[n]; i < ends[n]; i++)
+							d[targets[i]]++;
+					inDegrees = d;
+				}
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * @return The i-th in-neighbor of the node (in increasing id order)
+	 */
+	public int inNeighbor(int node, int i) {
+		return reverse().neighbor(node, i);
+	}
+
+	/**
+	 * @return The snapshot of the graph with all the edges reversed
+	 */
+	public AdjacencySnapshot reverse() {
+		AdjacencySnapshot r = reverse;
+		if (r == null) {
+			synchronized (this) {
+				r = reverse;
+				if (r == null)
+					reverse = r = buildReverse();
+			}
+		}
+		return r;
+	}
+
+	private AdjacencySnapshot buildReverse() {
+		int[] inDegrees = inDegrees();
+		int[] inOffsets = new int[size() + 1];
+		for (int n = 0; n < size(); n++)
+			inOffsets[n + 1] = inOffsets[n] + inDegrees[n];
+
+		// Sources are visited in increasing order, so rows come out sorted
+		int[] sources = new int[edges];
+		int[] fill = Arrays.copyOf(inOffsets, size());
+		for (int n = 0; n < size(); n++)
+			for (int i = starts[n]; i < ends[n]; i++)
+				sources[fill[targets[i]]++] = n;
+
+		AdjacencySnapshot r = fromSortedRows(inOffsets, sources);
+		r.reverse = this;
+		return r;
+	}
+
+	/**
+	 * Get the intermediate result associated with the key, creating it on
+	 * first request
+	 *
+	 * @param key
+	 * @param factory
+	 * @return the shared result
+	 */
+	@SuppressWarnings("unchecked")
+	<T> T shared(Object key, Function<AdjacencySnapshot, T> factory) {
+		return (T) shared.computeIfAbsent(key, (k) -> factory.apply(this));
+	}
+
+	int[] starts() {
+		return starts;
+	}
+
+	int[] ends() {
+		return ends;
+	}
+
+	int[] targets() {
+		return targets;
+	}
+}
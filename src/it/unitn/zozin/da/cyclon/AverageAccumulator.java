@@ -0,0 +1,46 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Average of a per node value
+ */
+class AverageAccumulator extends PropertyAccumulator {
+
+	private final IntToDoubleFunction nodeValue;
+	private final DoubleBinaryOperator finisher;
+
+	private double sum;
+	private long count;
+
+	/**
+	 * @param nodeValue
+	 *            Value of a single node
+	 * @param finisher
+	 *            Final value given the sum and the number of the node values
+	 */
+	public AverageAccumulator(IntToDoubleFunction nodeValue, DoubleBinaryOperator finisher) {
+		this.nodeValue = nodeValue;
+		this.finisher = finisher;
+	}
+
+	@Override
+	void accumulate(int from, int to) {
+		for (int node = from; node < to; node++)
+			sum += nodeValue.applyAsDouble(node);
+		count += to - from;
+	}
+
+	@Override
+	void combine(PropertyAccumulator other) {
+		AverageAccumulator o = (AverageAccumulator) other;
+		sum += o.sum;
+		count += o.count;
+	}
+
+	@Override
+	Object result() {
+		return (float) finisher.applyAsDouble(sum, count);
+	}
+}
@@ -0,0 +1,183 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Binary output of a measured property. The file starts with a header holding
+ * the property name and the simulation description, followed by a record for
+ * each measured round:
+ *
+ * <pre>
+ * int round | int data length | data
+ * </pre>
+ *
+ * where data is the fixed width value of the property or, for distributions,
+ * the varint encoded non empty bins. Records are buffered and written through
+ * a file channel.
+ */
+class BinaryOutput {
+
+	static final int MAGIC = 0x4359524f;
+	static final int VERSION = 1;
+
+	static final int MAX_VARINT_SIZE = 10;
+
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int RECORD_HEADER = 8;
+
+	private final FileChannel channel;
+	private final GraphProperty property;
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+	/**
+	 * @param file
+	 * @param property
+	 *            Property of the written values
+	 * @param description
+	 *            Description of the simulation, written in the header
+	 * @param append
+	 *            Append the records to an existing output of the same
+	 *            property, keeping its header
+	 */
+	BinaryOutput(File file, GraphProperty property, String description, boolean append) throws IOException {
+		this.property = property;
+
+		if (append && file.length() > 0) {
+			ByteBuffer in = map(file);
+			try {
+				if (readHeader(in, file) != property)
+					throw new IOException(file + " is the output of another property");
+			} catch (BufferUnderflowException | IllegalArgumentException e) {
+				throw new IOException(file + " is truncated or corrupted", e);
+			}
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			return;
+		}
+
+		this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		putString(buffer, property.name());
+		putString(buffer, description);
+	}
+
+	/**
+	 * Append the value measured in a round
+	 *
+	 * @param round
+	 * @param value
+	 */
+	void write(int round, Object value) throws IOException {
+		int size = RECORD_HEADER + property.maxDataSize(value);
+		if (buffer.remaining() < size) {
+			flush();
+			if (buffer.capacity() < size)
+				buffer = ByteBuffer.allocateDirect(size);
+		}
+
+		int start = buffer.position();
+		buffer.putInt(round);
+		buffer.putInt(0);
+		property.writeData(value, buffer);
+		buffer.putInt(start + 4, buffer.position() - start - RECORD_HEADER);
+	}
+
+	void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	/**
+	 * Convert a binary output to the text output of its property
+	 *
+	 * @param file
+	 *            Binary output
+	 * @param out
+	 *            Destination of the text output
+	 */
+	static void toText(File file, Writer out) throws IOException {
+		ByteBuffer in = map(file);
+		try {
+			GraphProperty property = readHeader(in, file);
+			out.write(getString(in));
+
+			while (in.hasRemaining()) {
+				int round = in.getInt();
+				int length = in.getInt();
+
+				ByteBuffer data = in.slice();
+				data.limit(length);
+				out.write(property.dataToString(property.readData(data), round));
+				in.position(in.position() + length);
+			}
+		} catch (BufferUnderflowException | IllegalArgumentException e) {
+			throw new IOException(file + " is truncated or corrupted", e);
+		}
+	}
+
+	private static ByteBuffer map(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+	}
+
+	/**
+	 * Read the header up to the property name
+	 *
+	 * @return The property of the output
+	 */
+	private static GraphProperty readHeader(ByteBuffer in, File file) throws IOException {
+		if (in.getInt() != MAGIC || in.getInt() != VERSION)
+			throw new IOException(file + " is not a binary output");
+		return GraphProperty.valueOf(getString(in));
+	}
+
+	/**
+	 * Write an unsigned LEB128 varint
+	 */
+	static void putVarLong(ByteBuffer out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.put((byte) value);
+	}
+
+	static long getVarLong(ByteBuffer in) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0)
+				return value;
+		}
+		throw new IllegalArgumentException("Malformed varint");
+	}
+
+	private static void putString(ByteBuffer out, String s) {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.putInt(bytes.length);
+		out.put(bytes);
+	}
+
+	private static String getString(ByteBuffer in) {
+		byte[] bytes = new byte[in.getInt()];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
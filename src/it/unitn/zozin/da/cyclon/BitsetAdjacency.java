@@ -0,0 +1,120 @@
+package it.unitn.zozin.da.cyclon;
+
+/**
+ * Adjacency matrix of a snapshot packed as a bitset row for each node, 64
+ * nodes in each word. The edges among a set of nodes are counted with
+ * popcounts of the rows against the bitset of the set, which has at most one
+ * non empty word for each node in the set, so each row costs a few word
+ * operations regardless of the graph size. The matrix takes N^2/8 bytes,
+ * thus it is only used up to a limited number of nodes.
+ */
+class BitsetAdjacency {
+
+	// Largest array of rows, the JVM array size limit
+	private static final long MAX_MATRIX_WORDS = Integer.MAX_VALUE - 8;
+
+	// Words of each row
+	private final int words;
+
+	// Rows of all the nodes, node n at [n * words, (n + 1) * words)
+	private final long[] rows;
+
+	private final AdjacencySnapshot graph;
+	private final int maxOutDegree;
+
+	BitsetAdjacency(AdjacencySnapshot graph) {
+		checkSize(graph.size());
+		this.graph = graph;
+		this.words = (graph.size() + 63) >>> 6;
+		this.rows = new long[graph.size() * words];
+
+		int max = 0;
+		for (int n = 0; n < graph.size(); n++) {
+			int degree = graph.outDegree(n);
+			for (int i = 0; i < degree; i++) {
+				int t = graph.neighbor(n, i);
+				rows[n * words + (t >>> 6)] |= 1L << t;
+			}
+			max = Math.max(max, degree);
+		}
+		this.maxOutDegree = max;
+	}
+
+	/**
+	 * Check that the matrix of the given nodes fits in an array
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the matrix is too big
+	 */
+	static void checkSize(int nodes) {
+		if (matrixBytes(nodes) / 8 > MAX_MATRIX_WORDS)
+			throw new IllegalArgumentException("Bitset adjacency matrix of " + nodes + " nodes exceeds the array size limit, lower clusteringBitsetMB");
+	}
+
+	/**
+	 * @return Bytes used by the matrix of a graph with the given nodes
+	 */
+	static long matrixBytes(int nodes) {
+		return (long) nodes * ((nodes + 63) >>> 6) * 8;
+	}
+
+	boolean hasEdge(int from, int to) {
+		return (rows[from * words + (to >>> 6)] & (1L << to)) != 0;
+	}
+
+	/**
+	 * @return A mask to count the edges among the out-neighbors of the nodes,
+	 *         to be used by one thread at a time
+	 */
+	NeighborMask newMask() {
+		return new NeighborMask(maxOutDegree);
+	}
+
+	/**
+	 * Bitset of the out-neighbors of a node, holding only the non empty words
+	 */
+	class NeighborMask {
+
+		private final int[] wordIndex;
+		private final long[] wordBits;
+		private int size;
+
+		private NeighborMask(int capacity) {
+			this.wordIndex = new int[capacity];
+			this.wordBits = new long[capacity];
+		}
+
+		/**
+		 * @return The number of edges between the out-neighbors of the node,
+		 *         excluding the edges pointing to the node itself
+		 */
+		int neighborEdges(int node) {
+			int degree = graph.outDegree(node);
+
+			// Neighbors are sorted by id, so the ones in the same word are
+			// consecutive
+			size = 0;
+			for (int i = 0; i < degree; i++) {
+				int t = graph.neighbor(node, i);
+				if (t == node)
+					continue;
+				int w = t >>> 6;
+				if (size > 0 && wordIndex[size - 1] == w) {
+					wordBits[size - 1] |= 1L << t;
+				} else {
+					wordIndex[size] = w;
+					wordBits[size] = 1L << t;
+					size++;
+				}
+			}
+
+			int edges = 0;
+			for (int i = 0; i < degree; i++) {
+				int row = graph.neighbor(node, i) * words;
+				for (int j = 0; j < size; j++)
+					edges += Long.bitCount(rows[row + wordIndex[j]] & wordBits[j]);
+			}
+			return edges;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.Arrays;
+
+/**
+ * Introducers of every node at boot, generated by a boot topology. Each node
+ * has up to a fixed number of introducers, stored in a flat array indexed by
+ * the dense node ids.
+ */
+class BootIntroducers {
+
+	private final int nodes;
+	private final int width;
+	private final int[] ids;
+	private final int[] counts;
+
+	/**
+	 * @param nodes
+	 * @param width
+	 *            Maximum number of introducers of a node
+	 */
+	BootIntroducers(int nodes, int width) {
+		this.nodes = nodes;
+		this.width = width;
+		this.ids = new int[nodes * width];
+		this.counts = new int[nodes];
+	}
+
+	int nodes() {
+		return nodes;
+	}
+
+	/**
+	 * Add an introducer to the node, ignoring the introducers already added
+	 * and the ones exceeding the maximum
+	 *
+	 * @return True if the introducer has been added
+	 */
+	boolean add(int node, int introducer) {
+		if (counts[node] == width || contains(node, introducer))
+			return false;
+		ids[node * width + counts[node]++] = introducer;
+		return true;
+	}
+
+	boolean contains(int node, int introducer) {
+		int base = node * width;
+		for (int i = 0; i < counts[node]; i++)
+			if (ids[base + i] == introducer)
+				return true;
+		return false;
+	}
+
+	int count(int node) {
+		return counts[node];
+	}
+
+	/**
+	 * @return The i-th introducer of the node
+	 */
+	int get(int node, int i) {
+		return ids[node * width + i];
+	}
+
+	/**
+	 * @return A copy of the introducers of the node
+	 */
+	int[] of(int node) {
+		return Arrays.copyOfRange(ids, node * width, node * width + counts[node]);
+	}
+}
@@ -0,0 +1,194 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import akka.actor.ActorRef;
+
+/**
+ * Binary checkpoint of the protocol state of all the nodes (cache entries
+ * and join flag) after a round. The file starts with a fixed header followed
+ * by a fixed-width record per node, so that every node can write its own
+ * record concurrently through a memory mapping of the file.
+ *
+ * Header: magic, version, nodes, cache size, round (ints). Node record: an
+ * int with the number of entries (the highest bit is the join flag), then
+ * cache size pairs of ints (id, age).
+ */
+class Checkpoint {
+
+	private static final int MAGIC = 0x4359434b;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 5 * Integer.BYTES;
+	private static final int JOINED_FLAG = 1 << 31;
+
+	// Files are mapped in segments of whole records of at most this size
+	private static final int MAX_SEGMENT_SIZE = 1 << 30;
+
+	private final int recordSize;
+	private final int segmentRecords;
+	private final MappedByteBuffer[] segments;
+
+	private Checkpoint(FileChannel channel, MapMode mode, int nodes, int cacheSize) throws IOException {
+		this.recordSize = Integer.BYTES * (1 + 2 * cacheSize);
+		this.segmentRecords = Math.max(1, MAX_SEGMENT_SIZE / recordSize);
+
+		int count = (nodes + segmentRecords - 1) / segmentRecords;
+		segments = new MappedByteBuffer[count];
+		for (int s = 0; s < count; s++) {
+			int records = Math.min(segmentRecords, nodes - s * segmentRecords);
+			segments[s] = channel.map(mode, HEADER_SIZE + (long) s * segmentRecords * recordSize, (long) records * recordSize);
+		}
+	}
+
+	private int offset(int node) {
+		return (node % segmentRecords) * recordSize;
+	}
+
+	private MappedByteBuffer segment(int node) {
+		return segments[node / segmentRecords];
+	}
+
+	/**
+	 * Checkpoint being written. Nodes write their records concurrently and
+	 * the last one notifies the collector, then the checkpoint is committed
+	 * replacing the previous one.
+	 */
+	static class Writer {
+
+		private final Path file;
+		private final Path tmpFile;
+		private final FileChannel channel;
+		private final Checkpoint checkpoint;
+		private final AtomicInteger pending;
+		private final ActorRef collector;
+
+		/**
+		 * @param file
+		 * @param nodes
+		 * @param cacheSize
+		 * @param round
+		 *            Last completed round
+		 * @param collector
+		 *            Actor to notify when all the nodes have written, if any
+		 */
+		Writer(String file, int nodes, int cacheSize, int round, ActorRef collector) throws IOException {
+			this.file = Paths.get(file);
+			this.tmpFile = Paths.get(file + ".tmp");
+			this.channel = FileChannel.open(tmpFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this.pending = new AtomicInteger(nodes);
+			this.collector = collector;
+
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putInt(nodes).putInt(cacheSize).putInt(round).flip();
+			channel.write(header, 0);
+
+			this.checkpoint = new Checkpoint(channel, MapMode.READ_WRITE, nodes, cacheSize);
+		}
+
+		/**
+		 * Write the record of a node, records of different nodes can be
+		 * written concurrently
+		 *
+		 * @param node
+		 * @param joined
+		 * @param entries
+		 *            The cache entries of the node
+		 */
+		void put(int node, boolean joined, NodeList entries) {
+			MappedByteBuffer segment = checkpoint.segment(node);
+			int offset = checkpoint.offset(node);
+
+			segment.putInt(offset, entries.size() | (joined ? JOINED_FLAG : 0));
+			for (int i = 0; i < entries.size(); i++) {
+				segment.putInt(offset + Integer.BYTES * (1 + 2 * i), entries.id(i));
+				segment.putInt(offset + Integer.BYTES * (2 + 2 * i), entries.age(i));
+			}
+
+			// The atomic decrement publishes the writes to the last writer
+			if (pending.decrementAndGet() == 0 && collector != null)
+				collector.tell(new Completed(), ActorRef.noSender());
+		}
+
+		/**
+		 * Flush the checkpoint to disk and replace the previous one
+		 */
+		void commit() throws IOException {
+			for (MappedByteBuffer segment : checkpoint.segments)
+				segment.force();
+			channel.close();
+			Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Checkpoint loaded to resume a simulation, records of different nodes can
+	 * be read concurrently
+	 */
+	static class Reader {
+
+		private final Checkpoint checkpoint;
+		private final int round;
+
+		/**
+		 * @param file
+		 * @param nodes
+		 *            Expected number of nodes
+		 * @param cacheSize
+		 *            Expected cache size
+		 */
+		Reader(String file, int nodes, int cacheSize) throws IOException {
+			try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				channel.read(header, 0);
+				header.flip();
+
+				if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION)
+					throw new IOException("Invalid checkpoint file " + file);
+				if (header.getInt() != nodes || header.getInt() != cacheSize)
+					throw new IOException("Checkpoint " + file + " does not match the configured nodes and cache size");
+				this.round = header.getInt();
+
+				// The mapping remains valid after the channel is closed
+				this.checkpoint = new Checkpoint(channel, MapMode.READ_ONLY, nodes, cacheSize);
+			}
+		}
+
+		/**
+		 * @return The last round completed before the checkpoint
+		 */
+		int round() {
+			return round;
+		}
+
+		boolean joined(int node) {
+			return (checkpoint.segment(node).getInt(checkpoint.offset(node)) & JOINED_FLAG) != 0;
+		}
+
+		NodeList entries(int node) {
+			MappedByteBuffer segment = checkpoint.segment(node);
+			int offset = checkpoint.offset(node);
+
+			int size = segment.getInt(offset) & ~JOINED_FLAG;
+			int[] ids = new int[size];
+			int[] ages = new int[size];
+			for (int i = 0; i < size; i++) {
+				ids[i] = segment.getInt(offset + Integer.BYTES * (1 + 2 * i));
+				ages[i] = segment.getInt(offset + Integer.BYTES * (2 + 2 * i));
+			}
+			return new NodeList(ids, ages);
+		}
+	}
+
+	public static class Completed {
+
+	}
+}
@@ -0,0 +1,67 @@
+package it.unitn.zozin.da.cyclon;
+
+/**
+ * Summary of a degree distribution
+ */
+public class DegreeStatistics {
+
+	final float mean;
+	final float variance;
+	final int max;
+
+	// Gini coefficient of the degrees, 0 when all the nodes have the same
+	// degree
+	final float gini;
+
+	public DegreeStatistics(float mean, float variance, int max, float gini) {
+		this.mean = mean;
+		this.variance = variance;
+		this.max = max;
+		this.gini = gini;
+	}
+
+	/**
+	 * Calculate the statistics of a distribution
+	 *
+	 * @param histogram
+	 *            Number of nodes for each degree
+	 * @return the statistics
+	 */
+	static DegreeStatistics of(long[] histogram) {
+		long nodes = 0;
+		double sum = 0;
+		double squares = 0;
+		int max = 0;
+		for (int degree = 0; degree < histogram.length; degree++) {
+			long count = histogram[degree];
+			if (count == 0)
+				continue;
+			nodes += count;
+			sum += (double) degree * count;
+			squares += (double) degree * degree * count;
+			max = degree;
+		}
+
+		if (nodes == 0)
+			return new DegreeStatistics(0, 0, 0, 0);
+
+		// Gini over the degrees in increasing order, the nodes with the same
+		// degree occupy the consecutive ranks [rank + 1, rank + count]
+		double weighted = 0;
+		long rank = 0;
+		for (int degree = 0; degree < histogram.length; degree++) {
+			long count = histogram[degree];
+			weighted += (double) degree * count * (2 * rank + count - nodes);
+			rank += count;
+		}
+
+		double mean = sum / nodes;
+		double gini = (sum > 0) ? weighted / (nodes * sum) : 0;
+		return new DegreeStatistics((float) mean, (float) Math.max(0, squares / nodes - mean * mean), max, (float) gini);
+	}
+
+	@Override
+	public String toString() {
+		return "mean=" + mean + " variance=" + variance + " max=" + max + " gini=" + gini;
+	}
+}
@@ -0,0 +1,71 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.Properties;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+/**
+ * Dispatchers and mailboxes of the simulation actors, defined in the actor
+ * system configuration from the simulation configuration. Nodes and shards
+ * run on the node dispatcher, the simulation and graph actors (coordinators)
+ * on the coordinator dispatcher and the graph properties are calculated on a
+ * separate pool of compute threads.
+ */
+class DispatcherProfiles {
+
+	static final String NODE_DISPATCHER = "cyclon.node-dispatcher";
+	static final String COORDINATOR_DISPATCHER = "cyclon.coordinator-dispatcher";
+	static final String NODE_MAILBOX = "cyclon.node-mailbox";
+
+	final int NODE_THREADS;
+	final int NODE_THROUGHPUT;
+	final boolean SINGLE_CONSUMER_MAILBOX;
+	final boolean PINNED_COORDINATORS;
+	final int COMPUTE_THREADS;
+
+	DispatcherProfiles(Properties props) {
+		int processors = Runtime.getRuntime().availableProcessors();
+		NODE_THREADS = Integer.parseInt(props.getProperty("nodeDispatcherThreads", Integer.toString(processors)).trim());
+		NODE_THROUGHPUT = Integer.parseInt(props.getProperty("nodeThroughput", "5").trim());
+		SINGLE_CONSUMER_MAILBOX = props.getProperty("nodeMailbox", "singleConsumer").trim().equalsIgnoreCase("singleConsumer");
+		PINNED_COORDINATORS = props.getProperty("coordinatorDispatcher", "pinned").trim().equalsIgnoreCase("pinned");
+		COMPUTE_THREADS = Integer.parseInt(props.getProperty("computeThreads", Integer.toString(processors)).trim());
+
+		if (NODE_THREADS < 1 || NODE_THROUGHPUT < 1 || COMPUTE_THREADS < 1)
+			throw new IllegalArgumentException("nodeDispatcherThreads, nodeThroughput and computeThreads must be at least 1");
+	}
+
+	/**
+	 * @return The actor system configuration defining the profiles
+	 */
+	Config toAkkaConfig() {
+		StringBuilder conf = new StringBuilder();
+
+		conf.append(NODE_DISPATCHER).append(" {\n");
+		conf.append("  type = Dispatcher\n");
+		conf.append("  executor = fork-join-executor\n");
+		conf.append("  fork-join-executor {\n");
+		conf.append("    parallelism-min = ").append(NODE_THREADS).append("\n");
+		conf.append("    parallelism-factor = 1.0\n");
+		conf.append("    parallelism-max = ").append(NODE_THREADS).append("\n");
+		conf.append("  }\n");
+		conf.append("  throughput = ").append(NODE_THROUGHPUT).append("\n");
+		conf.append("}\n");
+
+		conf.append(COORDINATOR_DISPATCHER).append(" {\n");
+		if (PINNED_COORDINATORS) {
+			// One dedicated thread per coordinator actor
+			conf.append("  type = PinnedDispatcher\n");
+			conf.append("  executor = thread-pool-executor\n");
+		} else {
+			conf.append("  type = Dispatcher\n");
+			conf.append("  executor = default-executor\n");
+		}
+		conf.append("}\n");
+
+		conf.append(NODE_MAILBOX).append(".mailbox-type = ");
+		conf.append(SINGLE_CONSUMER_MAILBOX ? "akka.dispatch.SingleConsumerOnlyUnboundedMailbox" : "akka.dispatch.UnboundedMailbox").append("\n");
+
+		return ConfigFactory.parseString(conf.toString()).withFallback(ConfigFactory.load());
+	}
+}
@@ -0,0 +1,43 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Approximated measure value with its error bound
+ */
+public class Estimate {
+
+	// Size of the binary encoding, value and error as floats
+	static final int DATA_SIZE = 8;
+
+	final float value;
+	final float error;
+
+	public Estimate(float value, float error) {
+		this.value = value;
+		this.error = error;
+	}
+
+	/**
+	 * @return The text output line of an estimate measured in a round
+	 */
+	static String dataToString(Object value, int round) {
+		Estimate estimate = (Estimate) value;
+		return round + " " + estimate.value + " " + estimate.error + "\n";
+	}
+
+	static void writeData(Object value, ByteBuffer out) {
+		Estimate estimate = (Estimate) value;
+		out.putFloat(estimate.value);
+		out.putFloat(estimate.error);
+	}
+
+	static Estimate readData(ByteBuffer in) {
+		return new Estimate(in.getFloat(), in.getFloat());
+	}
+
+	@Override
+	public String toString() {
+		return value + " +/- " + error;
+	}
+}
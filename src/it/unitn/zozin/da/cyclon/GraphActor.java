@@ -1,231 +1,212 @@
 package it.unitn.zozin.da.cyclon;
 
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import java.io.IOException;
+import java.util.Arrays;
 import akka.actor.AbstractFSM;
 import akka.actor.ActorRef;
 import akka.actor.Props;
-import it.unitn.zozin.da.cyclon.NodeActor.EndMeasureMessage;
+import akka.actor.Status;
+import akka.pattern.PatternsCS;
 import it.unitn.zozin.da.cyclon.NodeActor.EndRound;
-import it.unitn.zozin.da.cyclon.NodeActor.NodeCalcResult;
-import it.unitn.zozin.da.cyclon.NodeActor.NodeCalcTask;
 import it.unitn.zozin.da.cyclon.NodeActor.StartRound;
-import scala.collection.JavaConversions;
+import it.unitn.zozin.da.cyclon.SimulationMetrics.Phase;
 
 /**
- * Actor controlling all the node actors and aggregating measurement data
+ * Actor controlling all the node actors (through a tree of shards) and
+ * aggregating measurement data
  */
 public class GraphActor extends AbstractFSM<GraphActor.State, GraphActor.StateData> {
 
 	enum State {
-		Idle, BootRunning, RoundRunning, MeasureRunning, CalcRunning
+		Idle, AddRunning, BootRunning, RoundRunning, MeasureRunning, CalcRunning, CheckpointRunning
 	}
 
 	interface StateData {
 
 	}
 
-	class NodesCount implements StateData {
-
-		private final int totalNodes;
-		private int count;
-
-		public NodesCount(int totalNodes) {
-			this.totalNodes = totalNodes;
-		}
+	class MeasureStateData implements StateData {
 
-		public void increaseOne() {
-			count += 1;
-		}
+		final GraphProperty[] params;
+		final MeasureSettings settings;
 
-		public boolean isCompleted() {
-			return count == totalNodes;
+		public MeasureStateData(GraphProperty[] params, MeasureSettings settings) {
+			this.params = params;
+			this.settings = settings;
 		}
 	}
 
-	class MeasureStateData implements StateData {
-
-		private final int totalNodes;
-		private int count;
-		final GraphProperty param;
-
-		public MeasureStateData(int totalNodes, GraphProperty param) {
-			this.totalNodes = totalNodes;
-			this.param = param;
-		}
+	{
+		startWith(State.Idle, null);
 
-		public void increaseOne() {
-			count += 1;
-		}
+		when(State.Idle, matchEvent(StartAddNodesMessage.class, (addNodesMsg, data) -> processAddNodes(addNodesMsg)));
+		when(State.AddRunning, matchEvent(ShardActor.NodesAdded.class, (addedMsg, data) -> processNodesAdded()));
 
-		public boolean isCompleted() {
-			return count == totalNodes;
-		}
-	}
+		when(State.Idle, matchEvent(StartBootMessage.class, (bootNodesMsg, data) -> startBoot(bootNodesMsg)));
+		when(State.BootRunning, matchEvent(EndBootMessage.class, (endBootMsg, data) -> processNodeBooted()));
 
-	class CalcStateData implements StateData {
+		// Resume is completed as a boot
+		when(State.Idle, matchEvent(StartResumeMessage.class, (resumeMsg, data) -> startResume(resumeMsg)));
 
-		final public int total;
-		final public GraphProperty prop;
+		when(State.Idle, matchEvent(StartRound.class, (startRoundMsg, data) -> startRound(startRoundMsg)));
+		when(State.RoundRunning, matchEvent(NodeActor.EndRound.class, (endRoundMsg, data) -> processEndRound()));
 
-		@SuppressWarnings("rawtypes")
-		public final List values;
+		when(State.Idle, matchEvent(StartMeasureMessage.class, (startMeasureMsg, data) -> startMeasure(startMeasureMsg)));
+		when(State.MeasureRunning, matchEvent(SnapshotBuffer.Completed.class, MeasureStateData.class, (completedMsg, measureStateData) -> processMeasureCompleted(measureStateData)));
 
-		public int current = 0;
+		when(State.CalcRunning, matchEvent(RoundData.class, (roundData, data) -> processCalcResult(roundData)));
+		when(State.CalcRunning, matchEvent(Status.Failure.class, (failure, data) -> processCalcResult(failure)));
 
-		public CalcStateData(int total, GraphProperty param) {
-			this.total = total;
-			this.prop = param;
-			this.values = new ArrayList<Object>(total);
-		}
+		when(State.Idle, matchEvent(StartCheckpointMessage.class, (checkpointMsg, data) -> startCheckpoint(checkpointMsg)));
+		when(State.CheckpointRunning, matchEvent(Checkpoint.Completed.class, (completedMsg, data) -> processCheckpointCompleted()));
+	}
 
-		@SuppressWarnings("unchecked")
-		public void aggregateData(Object val) {
-			this.values.add(val);
-		}
+	// Task processing state
+	private ActorRef taskSender;
+	private long taskStart;
 
-		public boolean isCompleted() {
-			return current == total;
-		}
+	private SimulationMetrics metrics;
 
-		public void increaseOne() {
-			current++;
-		}
+	// Calculates the graph properties outside of the actors dispatcher
+	private MeasureEngine engine;
 
-		@SuppressWarnings("unchecked")
-		public Object computeFinalData() {
-			return values.stream().collect(prop.collector());
-		}
+	// Overlay adjacency as of the last measurement
+	private OverlayAdjacency overlay;
 
-	}
+	// Written directly by the nodes during measurement
+	private SnapshotBuffer snapshotBuffer;
 
-	{
-		startWith(State.Idle, null);
+	// Written directly by the nodes during checkpoint
+	private Checkpoint.Writer checkpoint;
 
-		when(State.Idle, matchEvent(StartAddNodesMessage.class, (addNodesMsg, data) -> processAddNodes(addNodesMsg)));
-		when(State.Idle, matchEvent(StartBootMessage.class, (bootNodesMsg, data) -> startBoot(bootNodesMsg)));
+	private int cacheSize;
 
-		when(State.BootRunning, matchEvent(EndBootMessage.class, NodesCount.class, (endBootMsg, nodesCount) -> processNodeBooted(nodesCount)));
+	AdjacencySnapshot adjacency;
 
-		when(State.Idle, matchEvent(StartRound.class, (startRoundMsg, data) -> startRound(startRoundMsg)));
-		when(State.RoundRunning, matchEvent(NodeActor.EndRound.class, NodesCount.class, (endRoundMsg, nodesCount) -> processEndRound(nodesCount)));
+	private NodeRegistry nodes;
 
-		when(State.Idle, matchEvent(StartMeasureMessage.class, (startMeasureMsg, data) -> startMeasure(startMeasureMsg)));
-		when(State.MeasureRunning, matchEvent(NodeActor.EndMeasureMessage.class, MeasureStateData.class, (measureDataMsg, nodesCount) -> processNodeMeasure(measureDataMsg, nodesCount)));
+	// Root of the shard tree owning all the nodes
+	private ActorRef rootShard;
 
-		when(State.CalcRunning, matchEvent(NodeActor.NodeCalcResult.class, CalcStateData.class, (calcDataMsg, calcState) -> processCalcResult(calcDataMsg, calcState)));
+	@Override
+	public void postStop() {
+		if (engine != null)
+			engine.shutdown();
+		super.postStop();
 	}
 
-	// Task processing state
-	private ActorRef taskSender;
+	private akka.actor.FSM.State<State, StateData> processAddNodes(StartAddNodesMessage addMsg) {
+		nodes = new NodeRegistry(addMsg.requiredNodes);
+		overlay = new OverlayAdjacency(addMsg.requiredNodes, addMsg.cacheSize);
+		snapshotBuffer = new SnapshotBuffer(addMsg.requiredNodes);
+		engine = new MeasureEngine(addMsg.computeThreads);
+		cacheSize = addMsg.cacheSize;
 
-	boolean[][] adjacencyMatrix;
+		taskSender = sender();
+		metrics = addMsg.metrics;
+		taskStart = metrics.start();
 
-	private akka.actor.FSM.State<State, StateData> processAddNodes(StartAddNodesMessage addMsg) {
-		Set<ActorRef> addedNodes = new HashSet<ActorRef>();
+		// Nodes are created and registered by the leaf shards
+		Props shardProps = Props.create(ShardActor.class, nodes, 0, addMsg.requiredNodes, addMsg.shardFanout, addMsg.cacheSize, addMsg.shuffleLength, addMsg.streams, metrics);
+		rootShard = context().actorOf(shardProps.withDispatcher(DispatcherProfiles.NODE_DISPATCHER), "shard");
 
-		for (int i = 0; i < addMsg.requiredNodes; i++) {
-			ActorRef node = context().actorOf(Props.create(NodeActor.class, addMsg.cacheSize, addMsg.shuffleLength), Integer.toString(i));
-			addedNodes.add(node);
-		}
+		return goTo(State.AddRunning);
+	}
 
-		sender().tell(new EndAddNodesMessage(addedNodes), self());
-		return stay();
+	private akka.actor.FSM.State<State, StateData> processNodesAdded() {
+		metrics.record(Phase.ADD, taskStart);
+		taskSender.tell(new EndAddNodesMessage(nodes), self());
+		return goTo(State.Idle);
 	}
 
 	private akka.actor.FSM.State<State, StateData> startBoot(StartBootMessage bootNodesMsg) {
 		taskSender = sender();
-
-		for (ActorRef n : bootNodesMsg.introducers.keySet()) {
-			n.tell(bootNodesMsg, self());
-		}
-
-		return goTo(State.BootRunning).using(new NodesCount(bootNodesMsg.introducers.size()));
+		taskStart = metrics.start();
+		rootShard.tell(bootNodesMsg, self());
+		return goTo(State.BootRunning);
 	}
 
-	private akka.actor.FSM.State<State, StateData> processNodeBooted(NodesCount count) {
-		count.increaseOne();
+	private akka.actor.FSM.State<State, StateData> startResume(StartResumeMessage resumeMsg) {
+		taskSender = sender();
+		taskStart = metrics.start();
+		rootShard.tell(resumeMsg, self());
+		return goTo(State.BootRunning);
+	}
 
-		if (count.isCompleted()) {
-			taskSender.tell(new EndBootMessage(), self());
-			return goTo(State.Idle);
-		} else
-			return stay();
+	private akka.actor.FSM.State<State, StateData> processNodeBooted() {
+		metrics.record(Phase.BOOT, taskStart);
+		taskSender.tell(new EndBootMessage(), self());
+		return goTo(State.Idle);
 	}
 
 	private akka.actor.FSM.State<State, StateData> startRound(StartRound startRoundMsg) {
-		int pendingNodes = 0;
 		taskSender = sender();
-		for (ActorRef c : JavaConversions.asJavaIterable(context().children())) {
-			pendingNodes++;
-			c.tell(startRoundMsg, self());
-		}
-		return goTo(State.RoundRunning).using(new NodesCount(pendingNodes));
+		taskStart = metrics.start();
+		metrics.startRound();
+		rootShard.tell(startRoundMsg, self());
+		return goTo(State.RoundRunning);
 	}
 
-	private akka.actor.FSM.State<State, StateData> processEndRound(NodesCount nodesCount) {
-		nodesCount.increaseOne();
-		if (nodesCount.isCompleted()) {
-			taskSender.tell(new EndRound(), self());
-			return goTo(State.Idle);
-		}
-		return stay();
+	private akka.actor.FSM.State<State, StateData> processEndRound() {
+		metrics.record(Phase.ROUND, taskStart);
+		taskSender.tell(new EndRound(), self());
+		return goTo(State.Idle);
 	}
 
 	private akka.actor.FSM.State<State, StateData> startMeasure(StartMeasureMessage msg) {
-		int pendingNodes = 0;
 		taskSender = sender();
-		for (ActorRef c : JavaConversions.asJavaIterable(context().children())) {
-			pendingNodes++;
-			c.tell(new NodeActor.StartMeasureMessage(), self());
-		}
+		taskStart = metrics.start();
+		snapshotBuffer.reset(self());
 
-		adjacencyMatrix = new boolean[pendingNodes][pendingNodes];
-		return goTo(State.MeasureRunning).using(new MeasureStateData(pendingNodes, msg.param));
-	}
+		rootShard.tell(new NodeActor.StartMeasureMessage(snapshotBuffer), self());
 
-	private akka.actor.FSM.State<State, StateData> processNodeMeasure(EndMeasureMessage measure, MeasureStateData measureStateData) {
-		measureStateData.increaseOne();
-		int node = actorToInt(sender());
-		for (ActorRef a : measure.neighbors) {
-			int neighbor = actorToInt(a);
-			adjacencyMatrix[node][neighbor] = true;
-		}
+		return goTo(State.MeasureRunning).using(new MeasureStateData(msg.params, msg.settings));
+	}
 
-		if (measureStateData.isCompleted()) {
-			return executeNodeCalculation(measureStateData.param);
-		} else {
-			return stay();
-		}
+	private akka.actor.FSM.State<State, StateData> processMeasureCompleted(MeasureStateData measureStateData) {
+		snapshotBuffer.drainTo(overlay);
+		adjacency = overlay.snapshot();
+		metrics.record(Phase.MEASURE, taskStart);
+		return executeNodeCalculation(measureStateData.params, measureStateData.settings);
 	}
 
-	private akka.actor.FSM.State<State, StateData> executeNodeCalculation(GraphProperty param) {
+	private akka.actor.FSM.State<State, StateData> executeNodeCalculation(GraphProperty[] params, MeasureSettings settings) {
+		taskStart = metrics.start();
 
-		for (ActorRef child : JavaConversions.asJavaIterable(context().children())) {
-			child.tell(new NodeCalcTask(adjacencyMatrix, param, actorToInt(child)), self());
-		}
+		// The result (or the failure) is sent back to this actor
+		PatternsCS.pipe(engine.calculate(params, adjacency, settings).thenApply(RoundData::new), context().dispatcher()).to(self());
 
-		return goTo(State.CalcRunning).using(new CalcStateData(adjacencyMatrix.length, param));
+		return goTo(State.CalcRunning).using(null);
 	}
 
-	private akka.actor.FSM.State<State, StateData> processCalcResult(NodeCalcResult result, CalcStateData calcState) {
-		calcState.aggregateData(result.result);
-
-		calcState.increaseOne();
-		if (calcState.isCompleted()) {
-			RoundData processedRound = new RoundData(calcState.computeFinalData());
-			taskSender.tell(processedRound, self());
-			return goTo(State.Idle);
-		} else {
+	private akka.actor.FSM.State<State, StateData> startCheckpoint(StartCheckpointMessage msg) {
+		try {
+			checkpoint = new Checkpoint.Writer(msg.file, nodes.size(), cacheSize, msg.round, self());
+		} catch (IOException e) {
+			sender().tell(new Status.Failure(e), self());
 			return stay();
 		}
+
+		taskSender = sender();
+		rootShard.tell(new NodeActor.StartCheckpointMessage(checkpoint), self());
+		return goTo(State.CheckpointRunning);
 	}
 
-	public static int actorToInt(ActorRef sender) {
-		return Integer.parseInt(sender.path().name());
+	private akka.actor.FSM.State<State, StateData> processCheckpointCompleted() {
+		try {
+			checkpoint.commit();
+			taskSender.tell(new EndCheckpointMessage(), self());
+		} catch (IOException e) {
+			taskSender.tell(new Status.Failure(e), self());
+		}
+		checkpoint = null;
+		return goTo(State.Idle);
+	}
+
+	private akka.actor.FSM.State<State, StateData> processCalcResult(Object result) {
+		metrics.record(Phase.CALC, taskStart);
+		taskSender.tell(result, self());
+		return goTo(State.Idle);
 	}
 
 	public static class StartAddNodesMessage {
@@ -233,20 +214,28 @@ public class GraphActor extends AbstractFSM<GraphActor.State, GraphActor.StateDa
 		final int requiredNodes;
 		final int cacheSize;
 		final int shuffleLength;
+		final int shardFanout;
+		final RandomStreams streams;
+		final SimulationMetrics metrics;
+		final int computeThreads;
 
-		public StartAddNodesMessage(int requiredNodes, int cacheSize, int shuffleLength) {
+		public StartAddNodesMessage(int requiredNodes, int cacheSize, int shuffleLength, int shardFanout, RandomStreams streams, SimulationMetrics metrics, int computeThreads) {
 			this.requiredNodes = requiredNodes;
 			this.cacheSize = cacheSize;
 			this.shuffleLength = shuffleLength;
+			this.shardFanout = shardFanout;
+			this.streams = streams;
+			this.metrics = metrics;
+			this.computeThreads = computeThreads;
 		}
 
 	}
 
 	public static class EndAddNodesMessage {
 
-		final Set<ActorRef> addedNodes;
+		final NodeRegistry addedNodes;
 
-		public EndAddNodesMessage(Set<ActorRef> addedNodes) {
+		public EndAddNodesMessage(NodeRegistry addedNodes) {
 			this.addedNodes = addedNodes;
 		}
 
@@ -254,41 +243,73 @@ public class GraphActor extends AbstractFSM<GraphActor.State, GraphActor.StateDa
 
 	public static class StartBootMessage {
 
-		final Map<ActorRef, ActorRef> introducers;
+		final NodeRegistry nodes;
+
+		// Split by the leaf shards into the messages of the single nodes
+		final BootIntroducers introducers;
 
-		public StartBootMessage(Map<ActorRef, ActorRef> introducers) {
+		public StartBootMessage(NodeRegistry nodes, BootIntroducers introducers) {
+			this.nodes = nodes;
 			this.introducers = introducers;
 		}
+	}
+
+	public static class EndBootMessage {
+
+	}
+
+	public static class StartResumeMessage {
+
+		final NodeRegistry nodes;
+		final Checkpoint.Reader checkpoint;
+
+		public StartResumeMessage(NodeRegistry nodes, Checkpoint.Reader checkpoint) {
+			this.nodes = nodes;
+			this.checkpoint = checkpoint;
+		}
+	}
+
+	public static class StartCheckpointMessage {
 
-		public ActorRef getIntroducerOf(ActorRef ref) {
-			return introducers.get(ref);
+		final String file;
+		final int round;
+
+		public StartCheckpointMessage(String file, int round) {
+			this.file = file;
+			this.round = round;
 		}
 	}
 
-	public static class EndBootMessage {
+	public static class EndCheckpointMessage {
 
 	}
 
 	public static class StartMeasureMessage {
 
-		final GraphProperty param;
+		final GraphProperty[] params;
+		final MeasureSettings settings;
 
-		public StartMeasureMessage(GraphProperty param) {
-			this.param = param;
+		public StartMeasureMessage(GraphProperty[] params, MeasureSettings settings) {
+			this.params = params;
+			this.settings = settings;
 		}
 	}
 
 	public static class RoundData {
 
-		final Object roundValue;
+		// One value for each measured property
+		final Object[] roundValues;
 
-		public RoundData(Object roundValue) {
-			this.roundValue = roundValue;
+		public RoundData(Object[] roundValues) {
+			this.roundValues = roundValues;
 		}
 
 		@Override
 		public String toString() {
-			return "RoundData " + roundValue;
+			StringBuilder b = new StringBuilder("RoundData");
+			for (Object v : roundValues)
+				b.append(' ').append((v instanceof long[]) ? Arrays.toString((long[]) v) : v);
+			return b.toString();
 		}
 	}
 }
\ No newline at end of file
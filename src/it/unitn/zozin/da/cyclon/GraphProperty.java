@@ -1,96 +1,128 @@
 package it.unitn.zozin.da.cyclon;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.EnumSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
-import java.util.function.BiConsumer;
-import java.util.function.BinaryOperator;
-import java.util.function.Function;
-import java.util.function.Supplier;
-import java.util.stream.Collector;
-import java.util.stream.Collectors;
+import java.nio.ByteBuffer;
+import java.util.SplittableRandom;
+import java.util.function.IntToDoubleFunction;
 
 /**
- * Defines graph properties that can be calculated over the adjacency matrix
+ * Defines graph properties that can be calculated over the adjacency snapshot
  */
 public enum GraphProperty {
 	IN_DEGREE {
 
 		@Override
-		Integer calculate(int node, boolean[][] graph) {
-			// Count nodes pointing to this node
-			int nodeInDegree = 0;
-			for (int neighbor = 0; neighbor < graph.length; neighbor++)
-				if (graph[neighbor][node])
-					nodeInDegree++;
-
-			return nodeInDegree;
-		}
-
-		@Override
-		public Collector<Object, ?, Map<Object, Long>> collector() {
-			return Collectors.groupingBy(Function.identity(), Collectors.counting());
+		PropertyAccumulator newAccumulator(AdjacencySnapshot graph, MeasureSettings settings) {
+			// Count nodes pointing to each node
+			int[] inDegrees = graph.inDegrees();
+			return new HistogramAccumulator((node) -> inDegrees[node]);
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
 		String dataToString(Object inDegreeDistr, int round) {
 			StringBuilder b = new StringBuilder();
-			for (Entry<Integer, Integer> dist : ((Map<Integer, Integer>) inDegreeDistr).entrySet())
-				b.append(dist.getKey() + " " + dist.getValue() + "\n");
+			long[] histogram = (long[]) inDegreeDistr;
+			for (int degree = 0; degree < histogram.length; degree++)
+				if (histogram[degree] > 0)
+					b.append(degree + " " + histogram[degree] + "\n");
 			return b.toString();
 		}
-	},
-	PATH_LEN {
-
-		private static final int DIST_UNREACHABLE = Integer.MAX_VALUE;
 
 		@Override
-		Float calculate(int node, boolean[][] graph) {
-			// Sums the path lengths of all the shortest paths from the node
-			return ((Long) Arrays.stream(shortestPath(node, graph)).filter((v) -> v != DIST_UNREACHABLE).mapToLong(Long::valueOf).sum()).floatValue();
+		int maxDataSize(Object inDegreeDistr) {
+			return BinaryOutput.MAX_VARINT_SIZE * (1 + 2 * ((long[]) inDegreeDistr).length);
 		}
 
-		// Dijkstra shortest path algorithm
-		private int[] shortestPath(int src, boolean[][] graph) {
-			int[] dist = new int[graph.length];
-			boolean[] visited = new boolean[graph.length];
+		@Override
+		void writeData(Object inDegreeDistr, ByteBuffer out) {
+			// Only the non empty bins, each one as the distance from the
+			// previous bin followed by the count
+			long[] histogram = (long[]) inDegreeDistr;
+			int bins = 0;
+			for (long count : histogram)
+				if (count > 0)
+					bins++;
+
+			BinaryOutput.putVarLong(out, bins);
+			int previous = 0;
+			for (int degree = 0; degree < histogram.length; degree++) {
+				if (histogram[degree] > 0) {
+					BinaryOutput.putVarLong(out, degree - previous);
+					BinaryOutput.putVarLong(out, histogram[degree]);
+					previous = degree;
+				}
+			}
+		}
 
-			for (int i = 0; i < graph.length; i++) {
-				dist[i] = DIST_UNREACHABLE;
-				visited[i] = false;
+		@Override
+		Object readData(ByteBuffer in) {
+			int bins = (int) BinaryOutput.getVarLong(in);
+			int[] degrees = new int[bins];
+			long[] counts = new long[bins];
+			int degree = 0;
+			for (int i = 0; i < bins; i++) {
+				degree += (int) BinaryOutput.getVarLong(in);
+				degrees[i] = degree;
+				counts[i] = BinaryOutput.getVarLong(in);
 			}
 
-			dist[src] = 0;
+			long[] histogram = new long[bins > 0 ? degree + 1 : 0];
+			for (int i = 0; i < bins; i++)
+				histogram[degrees[i]] = counts[i];
+			return histogram;
+		}
+	},
+	IN_DEGREE_STATS {
 
-			for (int i = 0; i < graph.length; i++) {
-				int minVertex = 0;
-				int min = DIST_UNREACHABLE;
-				for (int j = 0; j < graph.length; j++) {
-					if (!visited[j] && dist[j] < min) {
-						minVertex = j;
-						min = dist[j];
-					}
+		@Override
+		PropertyAccumulator newAccumulator(AdjacencySnapshot graph, MeasureSettings settings) {
+			// Summary of the same distribution measured by IN_DEGREE
+			int[] inDegrees = graph.inDegrees();
+			return new HistogramAccumulator((node) -> inDegrees[node]) {
+
+				@Override
+				Object result() {
+					return DegreeStatistics.of((long[]) super.result());
 				}
+			};
+		}
 
-				visited[minVertex] = true;
+		@Override
+		String dataToString(Object value, int round) {
+			DegreeStatistics stats = (DegreeStatistics) value;
+			return round + " " + stats.mean + " " + stats.variance + " " + stats.max + " " + stats.gini + "\n";
+		}
 
-				for (int v = 0; v < graph.length; v++) {
-					int edgeWeight = graph[minVertex][v] ? 1 : DIST_UNREACHABLE;
-					if (!visited[v] && edgeWeight != DIST_UNREACHABLE && dist[minVertex] != DIST_UNREACHABLE && dist[minVertex] + edgeWeight < dist[v])
-						dist[v] = dist[minVertex] + edgeWeight;
-				}
-			}
-			return dist;
+		@Override
+		int maxDataSize(Object value) {
+			return 16;
 		}
 
 		@Override
-		public Collector<Float, Float[], Float> collector() {
-			return new AVGCollector((state) -> state[0] / (state[1] * (state[1] - 1)));
+		void writeData(Object value, ByteBuffer out) {
+			DegreeStatistics stats = (DegreeStatistics) value;
+			out.putFloat(stats.mean);
+			out.putFloat(stats.variance);
+			out.putInt(stats.max);
+			out.putFloat(stats.gini);
+		}
+
+		@Override
+		Object readData(ByteBuffer in) {
+			return new DegreeStatistics(in.getFloat(), in.getFloat(), in.getInt(), in.getFloat());
+		}
+	},
+	PATH_LEN {
+
+		@Override
+		PropertyAccumulator newAccumulator(AdjacencySnapshot graph, MeasureSettings settings) {
+			// Sums the path lengths of all the shortest paths from each node
+			IntToDoubleFunction distanceSum;
+			if (settings.PATH_LEN_ENGINE == ShortestPaths.Engine.BFS)
+				distanceSum = (node) -> ShortestPaths.distanceSum(graph, node);
+			else
+				distanceSum = graph.shared(ShortestPaths.class, ShortestPaths::new)::distanceSum;
+
+			return new AverageAccumulator(distanceSum, (sum, count) -> sum / (count * (count - 1)));
 		}
 
 		@Override
@@ -99,111 +131,200 @@ public enum GraphProperty {
 		}
 
 	},
-	CLUSTERING {
+	PATH_LEN_APPROX {
 
 		@Override
-		Float calculate(int node, boolean[][] graph) {
-			// Calculate local clustering
+		PropertyAccumulator newAccumulator(AdjacencySnapshot graph, MeasureSettings settings) {
+			// The counters of the whole graph are calculated once the ranges
+			// are combined, in parallel on the same pool
+			NeighborhoodFunction nf = graph.shared(NeighborhoodFunction.class, (g) -> new NeighborhoodFunction(g, settings.PATH_LEN_APPROX_PRECISION, settings.SEED));
+			return new PropertyAccumulator() {
+
+				@Override
+				void accumulate(int from, int to) {
+				}
 
-			List<Integer> neighbors = new ArrayList<Integer>();
+				@Override
+				void combine(PropertyAccumulator other) {
+				}
 
-			// Get neighbors of the current node
-			for (int neighbor = 0; neighbor < graph.length; neighbor++)
-				if (graph[node][neighbor])
-					neighbors.add(neighbor);
+				@Override
+				Object result() {
+					return nf.averagePathLength();
+				}
+			};
+		}
 
-			// Graph induced by a node with less than two neighbors has 0
-			// edges, thus the clustering coefficient equals to 0
-			if (neighbors.size() < 2)
-				return 0f;
+		@Override
+		String dataToString(Object value, int round) {
+			return Estimate.dataToString(value, round);
+		}
 
-			int edges = 0;
+		@Override
+		int maxDataSize(Object value) {
+			return Estimate.DATA_SIZE;
+		}
 
-			for (int n1 : neighbors) {
-				// Count the number of edges of the graph induced by the
-				// current node (edges between current node neighbors)
-				for (int n2 : neighbors) {
-					// Skip the edge pointing to inducer node
-					if (n2 == node)
-						continue;
+		@Override
+		void writeData(Object value, ByteBuffer out) {
+			Estimate.writeData(value, out);
+		}
 
-					if (graph[n1][n2])
-						edges++;
-				}
-			}
-			return edges / (float) (neighbors.size() * (neighbors.size() - 1));
+		@Override
+		Object readData(ByteBuffer in) {
+			return Estimate.readData(in);
 		}
+	},
+	CLUSTERING {
 
 		@Override
-		public Collector<Float, Float[], Float> collector() {
-			return new AVGCollector((state) -> state[0] / state[1]);
+		PropertyAccumulator newAccumulator(AdjacencySnapshot graph, MeasureSettings settings) {
+			return new AverageAccumulator(localClustering(graph, settings), (sum, count) -> sum / count);
 		}
 
 		@Override
 		String dataToString(Object value, int round) {
 			return round + " " + value.toString() + "\n";
 		}
+	},
+	CLUSTERING_SAMPLED {
+
+		@Override
+		PropertyAccumulator newAccumulator(AdjacencySnapshot graph, MeasureSettings settings) {
+			// Sampling as many nodes as the graph costs more than the exact
+			// average, which has no error
+			if (settings.CLUSTERING_SAMPLE_MAX >= graph.size())
+				return new AverageAccumulator(localClustering(graph, settings), (sum, count) -> sum / count) {
+
+					@Override
+					Object result() {
+						return new Estimate((Float) super.result(), 0);
+					}
+				};
+
+			// The sample is drawn over the whole graph once the ranges are
+			// combined, so its cost does not depend on the ranges. Every
+			// snapshot gets its own sample, so that the errors of different
+			// rounds are independent
+			long seed = graph.shared(CLUSTERING_SAMPLED, (g) -> settings.nextSeed());
+			return new SampledAverageAccumulator(graph.size(), (node) -> localClustering(node, graph), new SplittableRandom(seed), settings.CLUSTERING_SAMPLE_ERROR, settings.CLUSTERING_SAMPLE_Z, settings.CLUSTERING_SAMPLE_MAX);
+		}
+
+		@Override
+		String dataToString(Object value, int round) {
+			return Estimate.dataToString(value, round);
+		}
+
+		@Override
+		int maxDataSize(Object value) {
+			return Estimate.DATA_SIZE;
+		}
+
+		@Override
+		void writeData(Object value, ByteBuffer out) {
+			Estimate.writeData(value, out);
+		}
+
+		@Override
+		Object readData(ByteBuffer in) {
+			return Estimate.readData(in);
+		}
 	};
 
 	/**
 	 * Convert data to string representation
-	 * 
+	 *
 	 * @param value
 	 * @param round
 	 */
 	abstract String dataToString(Object value, int round);
 
 	/**
-	 * Calculate value on single node
-	 * 
-	 * @param node
-	 * @param graph
-	 * @return
+	 * @param value
+	 * @return Upper bound of the bytes written by
+	 *         {@link #writeData(Object, ByteBuffer)}, by default the size of a
+	 *         float value
+	 */
+	int maxDataSize(Object value) {
+		return 4;
+	}
+
+	/**
+	 * Write the binary representation of the data, by default a float value
+	 *
+	 * @param value
+	 * @param out
+	 */
+	void writeData(Object value, ByteBuffer out) {
+		out.putFloat((Float) value);
+	}
+
+	/**
+	 * Read data written by {@link #writeData(Object, ByteBuffer)}
+	 *
+	 * @param in
 	 */
-	abstract Object calculate(int node, boolean[][] graph);
+	Object readData(ByteBuffer in) {
+		return in.getFloat();
+	}
 
 	/**
-	 * Compute final value by combing values from single nodes
-	 * 
+	 * Create an empty accumulator of the property values of a range of nodes
+	 *
+	 * @param graph
+	 * @param settings
 	 * @return
 	 */
-	public abstract Collector<?, ?, ?> collector();
-}
+	abstract PropertyAccumulator newAccumulator(AdjacencySnapshot graph, MeasureSettings settings);
 
-class AVGCollector implements Collector<Float, Float[], Float> {
+	/**
+	 * @return The clustering coefficient of a node given its out-degree and
+	 *         the edges between its neighbors
+	 */
+	static float localClustering(int degree, int edges) {
+		if (degree < 2)
+			return 0f;
+		return edges / (float) (degree * (degree - 1));
+	}
 
-	private final Function<Float[], Float> finisher;
+	/**
+	 * @return The clustering coefficient of a node of the graph, counting the
+	 *         edges on the bitset matrix when it fits in the configured
+	 *         memory
+	 */
+	static IntToDoubleFunction localClustering(AdjacencySnapshot graph, MeasureSettings settings) {
+		if (BitsetAdjacency.matrixBytes(graph.size()) > settings.CLUSTERING_BITSET_BYTES)
+			return (node) -> localClustering(node, graph);
 
-	public AVGCollector(Function<Float[], Float> finisher) {
-		this.finisher = finisher;
+		// Each range has its own mask over the shared matrix
+		BitsetAdjacency.NeighborMask mask = graph.shared(BitsetAdjacency.class, BitsetAdjacency::new).newMask();
+		return (node) -> localClustering(graph.outDegree(node), mask.neighborEdges(node));
 	}
 
-	@Override
-	public Supplier<Float[]> supplier() {
-		return () -> new Float[]{0f, 0f};
-	}
+	static float localClustering(int node, AdjacencySnapshot graph) {
+		int degree = graph.outDegree(node);
 
-	@Override
-	public BiConsumer<Float[], Float> accumulator() {
-		// state[0] = sum of values, state[1] = num of elements so far
-		return (state, v) -> {
-			state[0] += v;
-			state[1]++;
-		};
-	}
+		// Graph induced by a node with less than two neighbors has 0
+		// edges, thus the clustering coefficient equals to 0
+		if (degree < 2)
+			return 0f;
 
-	@Override
-	public BinaryOperator<Float[]> combiner() {
-		return null;
-	}
+		int edges = 0;
 
-	@Override
-	public Function<Float[], Float> finisher() {
-		return finisher;
-	}
+		for (int i = 0; i < degree; i++) {
+			int n1 = graph.neighbor(node, i);
+			// Count the number of edges of the graph induced by the
+			// current node (edges between current node neighbors)
+			for (int j = 0; j < degree; j++) {
+				int n2 = graph.neighbor(node, j);
+				// Skip the edge pointing to inducer node
+				if (n2 == node)
+					continue;
 
-	@Override
-	public Set<java.util.stream.Collector.Characteristics> characteristics() {
-		return EnumSet.of(Characteristics.UNORDERED);
+				if (graph.hasEdge(n1, n2))
+					edges++;
+			}
+		}
+		return edges / (float) (degree * (degree - 1));
 	}
-};
+}
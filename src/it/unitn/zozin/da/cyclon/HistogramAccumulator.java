@@ -0,0 +1,53 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.Arrays;
+
+/**
+ * Number of nodes in each bin of a per node integer value
+ */
+class HistogramAccumulator extends PropertyAccumulator {
+
+	interface NodeBin {
+
+		int of(int node);
+	}
+
+	private final NodeBin nodeBin;
+
+	private long[] histogram = new long[0];
+
+	/**
+	 * @param nodeBin
+	 *            Histogram bin of a single node
+	 */
+	public HistogramAccumulator(NodeBin nodeBin) {
+		this.nodeBin = nodeBin;
+	}
+
+	@Override
+	void accumulate(int from, int to) {
+		for (int node = from; node < to; node++) {
+			int bin = nodeBin.of(node);
+			if (bin >= histogram.length)
+				histogram = Arrays.copyOf(histogram, Math.max(bin + 1, histogram.length * 2));
+			histogram[bin]++;
+		}
+	}
+
+	@Override
+	void combine(PropertyAccumulator other) {
+		long[] o = ((HistogramAccumulator) other).histogram;
+		if (o.length > histogram.length)
+			histogram = Arrays.copyOf(histogram, o.length);
+		for (int bin = 0; bin < o.length; bin++)
+			histogram[bin] += o[bin];
+	}
+
+	@Override
+	Object result() {
+		int length = histogram.length;
+		while (length > 0 && histogram[length - 1] == 0)
+			length--;
+		return Arrays.copyOf(histogram, length);
+	}
+}
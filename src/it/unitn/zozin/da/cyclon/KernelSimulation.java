@@ -0,0 +1,474 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.stream.IntStream;
+import it.unitn.zozin.da.cyclon.GraphActor.RoundData;
+import it.unitn.zozin.da.cyclon.SimulationActor.Configuration;
+import it.unitn.zozin.da.cyclon.SimulationMetrics.MessageType;
+import it.unitn.zozin.da.cyclon.SimulationMetrics.Phase;
+
+/**
+ * Simulation engine running the same Cyclon rounds as {@link NodeActor}
+ * without actors. The caches of all the nodes are kept as a struct of arrays
+ * (node n owns the slots [n * cacheSize, (n + 1) * cacheSize)) and every
+ * message exchange is executed as a direct update of the caches involved.
+ *
+ * In sequential mode the nodes execute their round one after the other in id
+ * order. In parallel mode the joins are still sequential (the random walks
+ * touch many caches) while the shuffles are scheduled in batches of exchanges
+ * touching disjoint pairs of nodes, each batch running on all the cores.
+ *
+ * In asynchronous mode there are no rounds: every node fires on its own
+ * timer, with a period of one round unit of virtual time jittered per firing,
+ * and the timers are executed in virtual time order. Measurements are taken
+ * at the checkpoints at the end of each round unit.
+ */
+class KernelSimulation {
+
+	enum Mode {
+		SEQUENTIAL, PARALLEL
+	}
+
+	private static final int BOOT_ROUND = 0;
+
+	private final Configuration conf;
+	private final SimulationMetrics metrics;
+
+	// Where the measured rounds are written, if any
+	private final ResultWriter results;
+
+	private final int nodes;
+	private final int cacheSize;
+	private final int shuffleLength;
+
+	// Struct of arrays of all the node caches, ages are stored as in
+	// NeighborsCache as the node epoch in which the entry had age 0
+	private final int[] ids;
+	private final int[] births;
+	private final int[] sizes;
+	private final int[] epochs;
+	private final boolean[] joined;
+	private final SplittableRandom[] rands;
+
+	// Node locks of the batch under construction (stamped with the batch
+	// number)
+	private final int[] locks;
+
+	// Pending node timers of the asynchronous mode
+	private final TimerQueue timers;
+
+	KernelSimulation(Configuration conf, SimulationMetrics metrics, ResultWriter results) {
+		long start = metrics.start();
+		this.conf = conf;
+		this.metrics = metrics;
+		this.results = results;
+		this.nodes = conf.NODES;
+		this.cacheSize = conf.CYCLON_CACHE_SIZE;
+		this.shuffleLength = conf.CYCLON_SHUFFLE_LENGTH;
+
+		this.ids = new int[nodes * cacheSize];
+		this.births = new int[nodes * cacheSize];
+		this.sizes = new int[nodes];
+		this.epochs = new int[nodes];
+		this.joined = new boolean[nodes];
+		this.rands = new SplittableRandom[nodes];
+		this.locks = new int[nodes];
+		this.timers = new TimerQueue(nodes);
+
+		for (int n = 0; n < nodes; n++)
+			rands[n] = conf.RANDOM.forNode(n);
+
+		metrics.record(Phase.ADD, start);
+	}
+
+	/**
+	 * Run the whole simulation in the calling thread (measurements and
+	 * parallel batches use their own pools)
+	 */
+	public void run() throws InterruptedException, ExecutionException, IOException {
+		ForkJoinPool pool = (conf.KERNEL_MODE == Mode.PARALLEL) ? new ForkJoinPool(conf.KERNEL_THREADS) : null;
+		MeasureEngine engine = new MeasureEngine(conf.DISPATCHERS.COMPUTE_THREADS);
+
+		try {
+			int firstRound = BOOT_ROUND;
+
+			long start = metrics.start();
+			if (conf.RESUME_FROM != null) {
+				Main.LOGGER.log(Level.INFO, "Resuming from " + conf.RESUME_FROM + "... ");
+				// The checkpoint round has already been measured
+				firstRound = resume() + 1;
+			} else {
+				Main.LOGGER.log(Level.INFO, "Executing [BOOT]... ");
+				boot();
+			}
+			metrics.record(Phase.BOOT, start);
+			Main.LOGGER.log(Level.INFO, "[completed]\n");
+
+			if (conf.ROUND_MODE == Configuration.RoundMode.ASYNC)
+				scheduleTimers(Math.max(BOOT_ROUND, firstRound - 1));
+
+			for (int round = firstRound; round <= conf.ROUNDS; round++) {
+				if (round != BOOT_ROUND) {
+					Main.LOGGER.log(Level.INFO, "Executing round " + round + "... ");
+					start = metrics.start();
+					if (conf.ROUND_MODE == Configuration.RoundMode.ASYNC)
+						executeUntil(round);
+					else
+						executeRound(pool);
+					metrics.record(Phase.ROUND, start);
+					metrics.countCacheEntries(cacheEntries());
+					Main.LOGGER.log(Level.INFO, "[completed]\n");
+				}
+
+				// If the measure has to be taken only at the end, skip if
+				// this is not the last round
+				if (!conf.FINAL_MEASURE_MODE || round == conf.ROUNDS) {
+					RoundData data = measure(round, engine);
+					if (results != null)
+						results.write(round, data);
+				}
+
+				metrics.endRound(round, nodes, cacheSize);
+
+				if (conf.isCheckpointRound(round))
+					checkpoint(round);
+			}
+		} finally {
+			engine.shutdown();
+			if (pool != null)
+				pool.shutdownNow();
+		}
+	}
+
+	private RoundData measure(int round, MeasureEngine engine) throws InterruptedException, ExecutionException {
+		Main.LOGGER.log(Level.INFO, "Measuring round " + round + "... ");
+		long start = metrics.start();
+		AdjacencySnapshot graph = snapshot();
+		metrics.record(Phase.MEASURE, start);
+
+		start = metrics.start();
+		RoundData data = new RoundData(engine.calculate(conf.MEASURES, graph, conf.MEASURE_SETTINGS).get());
+		metrics.record(Phase.CALC, start);
+		Main.LOGGER.log(Level.INFO, "[completed] -> " + data + "\n");
+		return data;
+	}
+
+	private long cacheEntries() {
+		long entries = 0;
+		for (int n = 0; n < nodes; n++)
+			entries += sizes[n];
+		return entries;
+	}
+
+	/**
+	 * Restore the caches and join flags from the checkpoint
+	 *
+	 * @return The last round completed before the checkpoint
+	 */
+	private int resume() throws IOException {
+		Checkpoint.Reader checkpoint = new Checkpoint.Reader(conf.RESUME_FROM, nodes, cacheSize);
+		for (int n = 0; n < nodes; n++) {
+			NodeList entries = checkpoint.entries(n);
+			for (int i = 0; i < entries.size(); i++)
+				addNeighbor(n, entries.id(i), entries.age(i));
+			joined[n] = checkpoint.joined(n);
+		}
+		return checkpoint.round();
+	}
+
+	private void checkpoint(int round) throws IOException {
+		Checkpoint.Writer writer = new Checkpoint.Writer(conf.CHECKPOINT_FILE, nodes, cacheSize, round, null);
+		for (int n = 0; n < nodes; n++) {
+			int base = n * cacheSize;
+			int[] ages = new int[sizes[n]];
+			for (int i = 0; i < ages.length; i++)
+				ages[i] = epochs[n] - births[base + i];
+			writer.put(n, joined[n], new NodeList(Arrays.copyOfRange(ids, base, base + sizes[n]), ages));
+		}
+		writer.commit();
+	}
+
+	private void boot() {
+		BootIntroducers introducers = conf.BOOT_TOPOLOGY.generate(conf, conf.RANDOM.forTopology());
+		for (int n = 0; n < nodes; n++)
+			for (int i = 0; i < introducers.count(n); i++)
+				addNeighbor(n, introducers.get(n, i), 0);
+	}
+
+	private void executeRound(ForkJoinPool pool) throws InterruptedException, ExecutionException {
+		if (pool == null) {
+			for (int n = 0; n < nodes; n++) {
+				if (!joined[n])
+					join(n);
+				else
+					shuffle(n);
+			}
+			return;
+		}
+
+		// Joins touch the caches along random walks, run them first
+		int pending = 0;
+		int[] shuffling = new int[nodes];
+		for (int n = 0; n < nodes; n++) {
+			if (!joined[n])
+				join(n);
+			else if (sizes[n] > 0)
+				shuffling[pending++] = n;
+		}
+
+		int[] deferred = new int[nodes];
+		int[] batch = new int[nodes];
+		Arrays.fill(locks, 0);
+
+		for (int stamp = 1; pending > 0; stamp++) {
+			int batchSize = 0;
+			int deferredSize = 0;
+
+			for (int i = 0; i < pending; i++) {
+				int p = shuffling[i];
+				if (sizes[p] == 0)
+					continue;
+
+				int q = ids[oldestSlot(p)];
+				if (locks[p] == stamp || locks[q] == stamp) {
+					deferred[deferredSize++] = p;
+				} else {
+					locks[p] = stamp;
+					locks[q] = stamp;
+					batch[batchSize++] = p;
+				}
+			}
+
+			// Exchanges of a batch touch disjoint pairs of caches
+			int[] current = batch;
+			int size = batchSize;
+			pool.submit(() -> IntStream.range(0, size).parallel().forEach((i) -> shuffle(current[i]))).get();
+
+			int[] tmp = shuffling;
+			shuffling = deferred;
+			deferred = tmp;
+			pending = deferredSize;
+		}
+	}
+
+	/**
+	 * Schedule the first timer of each node at a random offset of the first
+	 * round unit to execute
+	 *
+	 * @param from
+	 *            Virtual time of the start of the round unit
+	 */
+	private void scheduleTimers(double from) {
+		for (int n = 0; n < nodes; n++)
+			timers.add(from + rands[n].nextDouble(), n);
+	}
+
+	/**
+	 * Execute in virtual time order all the timers expiring before the
+	 * checkpoint, each node reschedules its timer after firing
+	 *
+	 * @param checkpoint
+	 *            Virtual time of the next measurement
+	 */
+	private void executeUntil(double checkpoint) {
+		while (!timers.isEmpty() && timers.peekTime() < checkpoint) {
+			double time = timers.peekTime();
+			int n = timers.poll();
+
+			if (!joined[n])
+				join(n);
+			else
+				shuffle(n);
+
+			double period = 1 + conf.ASYNC_JITTER * (2 * rands[n].nextDouble() - 1);
+			timers.add(time + period, n);
+		}
+	}
+
+	/**
+	 * Join the overlay through random walks starting from a random neighbor
+	 * (see {@link NodeActor#performJoin()})
+	 */
+	private void join(int p) {
+		if (sizes[p] == 0)
+			return;
+
+		int introducer = randomNeighbor(p);
+		int hops = 0;
+
+		// The introducer starts one walk for each cache slot of the joining
+		// node
+		for (int walk = 0; walk < cacheSize; walk++) {
+			int n = introducer;
+			int hop;
+			for (hop = 0; hop < NodeActor.JOIN_TTL && sizes[n] > 0; hop++)
+				n = randomNeighbor(n);
+
+			hops += hop;
+
+			// The walk ends here: swap one entry for the joining node
+			int[] selected = removeRandomNeighbors(n, 1, p);
+			addNeighbor(n, p, 0);
+
+			addNeighbors(p, selected, p);
+		}
+
+		metrics.countMessage(MessageType.JOIN);
+		metrics.countMessages(MessageType.JOIN_FORWARD, hops);
+		metrics.countMessages(MessageType.JOIN_ANSWER, cacheSize);
+		metrics.countJoinHops(hops);
+		joined[p] = true;
+	}
+
+	/**
+	 * Shuffle with the oldest neighbor (see
+	 * {@link NodeActor#sendCyclonRequest()})
+	 */
+	private void shuffle(int p) {
+		if (sizes[p] == 0)
+			return;
+
+		epochs[p]++;
+
+		int destSlot = oldestSlot(p);
+		int q = ids[destSlot];
+		int destAge = epochs[p] - births[destSlot];
+		removeAt(p, destSlot);
+
+		// Request: other random neighbors and the fresh local node
+		int[] requestNodes = removeRandomNeighbors(p, shuffleLength - 1, NeighborsCache.NO_NODE);
+		int[] replaceable = new int[requestNodes.length + 2];
+		replaceable[0] = q;
+		replaceable[1] = destAge;
+		System.arraycopy(requestNodes, 0, replaceable, 2, requestNodes.length);
+
+		int[] received = Arrays.copyOf(requestNodes, requestNodes.length + 2);
+		received[requestNodes.length] = p;
+		received[requestNodes.length + 1] = 0;
+
+		// Destination answers with at most the same amount of entries,
+		// the request entry of the destination itself is skipped
+		int requestSize = received.length / 2 - (contains(received, q) ? 1 : 0);
+		int[] answerNodes = removeRandomNeighbors(q, requestSize, p);
+		addNeighbors(q, received, q);
+
+		addNeighbors(p, answerNodes, p);
+		addNeighbors(p, replaceable, NeighborsCache.NO_NODE);
+
+		metrics.countMessage(MessageType.REQUEST);
+		metrics.countMessage(MessageType.ANSWER);
+	}
+
+	/**
+	 * Build a snapshot of the overlay from the current caches
+	 */
+	private AdjacencySnapshot snapshot() {
+		int[] offsets = new int[nodes + 1];
+		for (int n = 0; n < nodes; n++)
+			offsets[n + 1] = offsets[n] + sizes[n];
+
+		int[] targets = new int[offsets[nodes]];
+		for (int n = 0; n < nodes; n++) {
+			System.arraycopy(ids, n * cacheSize, targets, offsets[n], sizes[n]);
+			Arrays.sort(targets, offsets[n], offsets[n + 1]);
+		}
+
+		return AdjacencySnapshot.fromSortedRows(offsets, targets);
+	}
+
+	// Cache operations over the slots of a node, they mirror NeighborsCache
+	// and exchange entries as (id, age) pairs packed in int arrays
+
+	private int randomNeighbor(int n) {
+		return ids[n * cacheSize + rands[n].nextInt(sizes[n])];
+	}
+
+	private int oldestSlot(int n) {
+		int base = n * cacheSize;
+		int oldest = base;
+		for (int s = base + 1; s < base + sizes[n]; s++)
+			if (births[s] < births[oldest])
+				oldest = s;
+		return oldest;
+	}
+
+	private int indexOf(int n, int id) {
+		int base = n * cacheSize;
+		for (int s = base; s < base + sizes[n]; s++)
+			if (ids[s] == id)
+				return s;
+		return -1;
+	}
+
+	private static boolean contains(int[] entries, int id) {
+		for (int i = 0; i < entries.length; i += 2)
+			if (entries[i] == id)
+				return true;
+		return false;
+	}
+
+	private void addNeighbor(int n, int id, int age) {
+		if (sizes[n] == cacheSize || indexOf(n, id) >= 0)
+			return;
+		int slot = n * cacheSize + sizes[n]++;
+		ids[slot] = id;
+		births[slot] = epochs[n] - age;
+	}
+
+	private void addNeighbors(int n, int[] entries, int exclude) {
+		for (int i = 0; i < entries.length && sizes[n] < cacheSize; i += 2)
+			if (entries[i] != exclude)
+				addNeighbor(n, entries[i], entries[i + 1]);
+	}
+
+	private void removeAt(int n, int slot) {
+		int last = n * cacheSize + --sizes[n];
+		ids[slot] = ids[last];
+		births[slot] = births[last];
+	}
+
+	private int[] removeRandomNeighbors(int n, int max, int exclude) {
+		int base = n * cacheSize;
+		int candidates = sizes[n];
+		int excluded = (exclude != NeighborsCache.NO_NODE) ? indexOf(n, exclude) : -1;
+		if (excluded >= 0) {
+			candidates--;
+			swap(excluded, base + candidates);
+		}
+
+		int count = Math.max(0, Math.min(max, candidates));
+		int[] removed = new int[count * 2];
+
+		// Partial Fisher-Yates as in NeighborsCache
+		for (int i = 0; i < count; i++) {
+			int last = candidates - 1 - i;
+			swap(base + rands[n].nextInt(last + 1), base + last);
+			removed[2 * i] = ids[base + last];
+			removed[2 * i + 1] = epochs[n] - births[base + last];
+		}
+
+		int remaining = candidates - count;
+		if (excluded >= 0) {
+			swap(base + candidates, base + remaining);
+			remaining++;
+		}
+
+		sizes[n] = remaining;
+		return removed;
+	}
+
+	private void swap(int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+
+		int birth = births[i];
+		births[i] = births[j];
+		births[j] = birth;
+	}
+}
@@ -0,0 +1,108 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import akka.actor.ActorSystem;
+import it.unitn.zozin.da.cyclon.SimulationActor.Configuration;
+import it.unitn.zozin.da.cyclon.SimulationMetrics.Phase;
+
+/**
+ * Runs complete simulations over a matrix of node counts, cache sizes,
+ * shuffle lengths and topologies and reports their throughput as JSON. The
+ * matrix is expanded as a sweep (see {@link SweepRunner}), every combination
+ * is executed sequentially for the warmup runs (not reported) and then for
+ * the measured runs.
+ */
+class MacroBenchmark {
+
+	// Period of the heap usage samples taken during a run
+	private static final long HEAP_SAMPLE_MILLIS = 10;
+
+	private final Properties props;
+	private final int warmup;
+	private final int iterations;
+	private final String output;
+
+	private int runs = 0;
+
+	MacroBenchmark(Properties props) {
+		this.props = props;
+		this.warmup = Integer.parseInt(props.getProperty("benchWarmup", "1").trim());
+		this.iterations = Integer.parseInt(props.getProperty("benchIterations", "3").trim());
+		this.output = props.getProperty("benchOutput", "BENCHMARK.json").trim();
+	}
+
+	public void run(ActorSystem sys) throws Exception {
+		List<Properties> matrix = SweepRunner.expand(props);
+
+		try (PrintWriter out = new PrintWriter(output)) {
+			out.write("[");
+			boolean first = true;
+			for (Properties runProps : matrix) {
+				Configuration conf = new Configuration();
+				conf.load(runProps);
+
+				for (int i = 0; i < warmup + iterations; i++) {
+					boolean measured = i >= warmup;
+					Main.LOGGER.log(Level.INFO, String.format("Benchmark nodes=%d cache=%d shuffle=%d topology=%s %s %d\n", conf.NODES, conf.CYCLON_CACHE_SIZE, conf.CYCLON_SHUFFLE_LENGTH, conf.BOOT_TOPOLOGY, measured ? "iteration" : "warmup", measured ? i - warmup : i));
+
+					String result = runOnce(sys, conf, i - warmup);
+					if (measured) {
+						out.write(first ? "\n" : ",\n");
+						out.write(result);
+						out.flush();
+						first = false;
+					}
+				}
+			}
+			out.write("\n]\n");
+		}
+	}
+
+	private String runOnce(ActorSystem sys, Configuration conf, int iteration) throws Exception {
+		SimulationMetrics metrics = new SimulationMetrics();
+
+		System.gc();
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		AtomicLong peakHeap = new AtomicLong(memory.getHeapMemoryUsage().getUsed());
+
+		// The heap usage is sampled during the whole run, the peaks of the
+		// single pools happen at different times so they cannot be summed
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor((r) -> {
+			Thread t = new Thread(r, "heap-sampler");
+			t.setDaemon(true);
+			return t;
+		});
+		sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max), 0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+
+		long start = System.nanoTime();
+		try {
+			Main.runSimulation(sys, "bench-" + runs++, conf, metrics, null);
+		} finally {
+			sampler.shutdownNow();
+		}
+		double total = (System.nanoTime() - start) / 1e9;
+		peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+
+		double roundTime = metrics.phaseNanos(Phase.ROUND) / 1e9;
+		long nodeRounds = (long) conf.NODES * conf.ROUNDS;
+
+		StringBuilder phases = new StringBuilder();
+		for (Phase phase : Phase.values()) {
+			if (phases.length() > 0)
+				phases.append(", ");
+			phases.append(String.format(Locale.ROOT, "\"%s\": %.6f", phase.name().toLowerCase(), metrics.phaseNanos(phase) / 1e9));
+		}
+
+		return String.format(Locale.ROOT, "  {\"engine\": \"%s\", \"nodes\": %d, \"cache\": %d, \"shuffle\": %d, \"topology\": \"%s\", \"rounds\": %d, \"iteration\": %d, " + "\"totalSeconds\": %.6f, \"nodeRoundsPerSecond\": %.1f, \"messages\": %d, \"messagesPerSecond\": %.1f, \"peakHeapBytes\": %d, \"phaseSeconds\": {%s}}", conf.ENGINE.name().toLowerCase(), conf.NODES, conf.CYCLON_CACHE_SIZE, conf.CYCLON_SHUFFLE_LENGTH, conf.BOOT_TOPOLOGY.name().toLowerCase(), conf.ROUNDS, iteration, total, nodeRounds / roundTime, metrics.messages(), metrics.messages() / roundTime, peakHeap.get(), phases);
+	}
+}
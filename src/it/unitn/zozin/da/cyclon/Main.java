@@ -1,66 +1,150 @@
 package it.unitn.zozin.da.cyclon;
 
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.Date;
-import java.util.Map.Entry;
-import java.util.concurrent.CompletionStage;
+import java.util.Properties;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.PoisonPill;
+import akka.actor.Status;
 import akka.pattern.PatternsCS;
 import akka.util.Timeout;
-import it.unitn.zozin.da.cyclon.GraphActor.RoundData;
 import it.unitn.zozin.da.cyclon.SimulationActor.Configuration;
-import it.unitn.zozin.da.cyclon.SimulationActor.SimulationDataMessage;
 import scala.concurrent.duration.FiniteDuration;
 
 public class Main {
 
 	static final Timeout SIM_MAX_TIME = Timeout.apply(FiniteDuration.create(60, TimeUnit.MINUTES));
-	static final Configuration config = new Configuration();
-	static PrintWriter out;
+	static final String BENCHMARK_FLAG = "--benchmark";
+	static final String CONVERT_FLAG = "--convert";
 
 	public static final Logger LOGGER = Logger.getGlobal();
 
 	public static void main(String args[]) throws Exception {
 
-		if (args.length < 1) {
+		if (args.length > 0 && args[0].equals(CONVERT_FLAG)) {
+			if (args.length < 2) {
+				System.err.println("Expected binary output file as argument");
+				System.exit(1);
+			}
+			convert(args[1], (args.length > 2) ? args[2] : null);
+			return;
+		}
+
+		boolean benchmark = args.length > 0 && args[0].equals(BENCHMARK_FLAG);
+		if (args.length < (benchmark ? 2 : 1)) {
 			System.err.println("Expected config file as argument");
 			System.exit(1);
 		}
 
-		config.load(new FileInputStream(args[0]));
-
 		System.setProperty("java.util.logging.SimpleFormatter.format", "%5$s%6$s");
 
-		out = new PrintWriter("OUTPUT.dat");
-
 		if (!System.getProperty("it.unitn.zozin.da.cyclon.debug", "").isEmpty())
 			Main.LOGGER.setLevel(Level.ALL);
 		else
 			Main.LOGGER.setLevel(Level.OFF);
 
-		ActorSystem sys = ActorSystem.create();
-		ActorRef simulation = SimulationActor.newActor(sys);
+		Properties props = new Properties();
+		try (FileInputStream in = new FileInputStream(args[benchmark ? 1 : 0])) {
+			props.load(in);
+		}
+
+		// The dispatcher profiles are shared by all the simulations of the
+		// system
+		ActorSystem sys = ActorSystem.create("cyclon", new DispatcherProfiles(props).toAkkaConfig());
+		try {
+			if (benchmark)
+				new MacroBenchmark(props).run(sys);
+			else if (SweepRunner.isSweep(props))
+				new SweepRunner(props).run(sys);
+			else
+				runSingle(sys, props);
+		} finally {
+			sys.terminate();
+		}
+	}
 
-		CompletionStage<Object> res = PatternsCS.ask(simulation, config, SIM_MAX_TIME);
-		res.thenRun(() -> sys.guardian().tell(PoisonPill.getInstance(), null));
+	private static void runSingle(ActorSystem sys, Properties props) throws Exception {
+		Configuration conf = new Configuration();
+		conf.load(props);
 
-		res.thenAcceptAsync((r) -> writeData((SimulationDataMessage) r));
+		runSimulation(sys, "control", conf, new File("."));
 	}
 
-	public static void writeData(SimulationDataMessage data) {
-		out.write(String.format("#Simulation completed on %s (nodes=%d rounds=%d cache=%d shuffle=%d topology=%s)\n", new Date().toString(), config.NODES, config.ROUNDS, config.CYCLON_CACHE_SIZE, config.CYCLON_SHUFFLE_LENGTH, config.BOOT_TOPOLOGY));
-		for (Entry<Integer, RoundData> e : data.simData.entrySet()) {
-			int round = e.getKey();
-			RoundData roundData = e.getValue();
-			// Write property for current round
-			out.write(data.conf.MEASURE.dataToString(roundData.roundValue, round));
+	/**
+	 * Convert a binary output to text
+	 *
+	 * @param binaryFile
+	 * @param textFile
+	 *            Destination, by default the binary file name with the .dat
+	 *            extension
+	 */
+	private static void convert(String binaryFile, String textFile) throws IOException {
+		if (textFile == null)
+			textFile = binaryFile.replaceFirst("\\.bin$", "") + ".dat";
+
+		try (PrintWriter out = new PrintWriter(textFile)) {
+			BinaryOutput.toText(new File(binaryFile), out);
+		}
+	}
+
+	/**
+	 * Run a simulation writing its outputs (the measured properties and the
+	 * execution metrics) in the given directory, waiting for its completion
+	 *
+	 * @param sys
+	 * @param name
+	 *            Name of the simulation actor, unique in the actor system
+	 * @param conf
+	 * @param dir
+	 */
+	static void runSimulation(ActorSystem sys, String name, Configuration conf, File dir) throws Exception {
+		// Rounds are written as soon as they are measured
+		ResultWriter results = new ResultWriter(conf, dir);
+
+		// Per round execution metrics, appended to the ones of the
+		// interrupted simulation when resuming
+		SimulationMetrics metrics = new SimulationMetrics(new PrintWriter(new FileOutputStream(new File(dir, "METRICS.dat"), conf.RESUME_FROM != null)));
+
+		try {
+			runSimulation(sys, name, conf, metrics, results);
+		} finally {
+			metrics.close();
+			results.close();
+		}
+	}
+
+	/**
+	 * Run a simulation with the engine of the configuration, waiting for its
+	 * completion
+	 *
+	 * @param sys
+	 * @param name
+	 *            Name of the simulation actor, unique in the actor system
+	 * @param conf
+	 * @param metrics
+	 * @param results
+	 *            Output of the measured rounds, null to discard them
+	 */
+	static void runSimulation(ActorSystem sys, String name, Configuration conf, SimulationMetrics metrics, ResultWriter results) throws Exception {
+		if (conf.ENGINE == Configuration.Engine.KERNEL) {
+			new KernelSimulation(conf, metrics, results).run();
+			return;
+		}
+
+		ActorRef simulation = SimulationActor.newActor(sys, name, metrics, results);
+		try {
+			Object res = PatternsCS.ask(simulation, conf, SIM_MAX_TIME).toCompletableFuture().get();
+			if (res instanceof Status.Failure)
+				throw new IOException("Simulation failed", ((Status.Failure) res).cause());
+		} finally {
+			simulation.tell(PoisonPill.getInstance(), ActorRef.noSender());
 		}
-		out.close();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,100 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Calculates graph properties on a dedicated fork-join pool, so that the
+ * protocol actors are not involved. The nodes are split into contiguous
+ * ranges, each one reduced into its own accumulators (one per property, so
+ * all the properties are calculated in a single pass over the snapshot), and
+ * the partial values are combined pairwise.
+ */
+class MeasureEngine {
+
+	// Ranges are aligned to the bit-parallel BFS blocks
+	private static final int RANGE_ALIGNMENT = ShortestPaths.BLOCK_SIZE;
+
+	// Number of ranges per worker thread, to balance uneven node costs
+	private static final int RANGES_PER_WORKER = 8;
+
+	private final ForkJoinPool pool;
+
+	MeasureEngine(int parallelism) {
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Calculate the properties asynchronously
+	 *
+	 * @param properties
+	 * @param graph
+	 * @param settings
+	 * @return the final values of the properties, in the same order
+	 */
+	public CompletableFuture<Object[]> calculate(GraphProperty[] properties, AdjacencySnapshot graph, MeasureSettings settings) {
+		int ranges = pool.getParallelism() * RANGES_PER_WORKER;
+		int rangeSize = (graph.size() + ranges - 1) / ranges;
+		rangeSize = Math.max(RANGE_ALIGNMENT, (rangeSize + RANGE_ALIGNMENT - 1) / RANGE_ALIGNMENT * RANGE_ALIGNMENT);
+
+		RangeTask task = new RangeTask(properties, graph, settings, 0, graph.size(), rangeSize);
+		return CompletableFuture.supplyAsync(() -> {
+			PropertyAccumulator[] accs = task.invoke();
+			Object[] values = new Object[accs.length];
+			for (int i = 0; i < accs.length; i++)
+				values[i] = accs[i].result();
+			return values;
+		}, pool);
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+
+	private static class RangeTask extends RecursiveTask<PropertyAccumulator[]> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final GraphProperty[] properties;
+		private final AdjacencySnapshot graph;
+		private final MeasureSettings settings;
+		private final int from;
+		private final int to;
+		private final int rangeSize;
+
+		RangeTask(GraphProperty[] properties, AdjacencySnapshot graph, MeasureSettings settings, int from, int to, int rangeSize) {
+			this.properties = properties;
+			this.graph = graph;
+			this.settings = settings;
+			this.from = from;
+			this.to = to;
+			this.rangeSize = rangeSize;
+		}
+
+		@Override
+		protected PropertyAccumulator[] compute() {
+			if (to - from <= rangeSize) {
+				PropertyAccumulator[] accs = new PropertyAccumulator[properties.length];
+				for (int i = 0; i < properties.length; i++) {
+					accs[i] = properties[i].newAccumulator(graph, settings);
+					accs[i].accumulate(from, to);
+				}
+				return accs;
+			}
+
+			// Split at a range boundary
+			int mid = from + ((to - from) / rangeSize / 2) * rangeSize;
+			if (mid == from)
+				mid += rangeSize;
+
+			RangeTask left = new RangeTask(properties, graph, settings, from, mid, rangeSize);
+			left.fork();
+			PropertyAccumulator[] right = new RangeTask(properties, graph, settings, mid, to, rangeSize).compute();
+			PropertyAccumulator[] accs = left.join();
+			for (int i = 0; i < accs.length; i++)
+				accs[i].combine(right[i]);
+			return accs;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/**
+ * Tuning parameters of the graph property calculations
+ */
+public class MeasureSettings {
+
+	final ShortestPaths.Engine PATH_LEN_ENGINE;
+	final int PATH_LEN_APPROX_PRECISION;
+
+	// Largest bitset adjacency matrix used by CLUSTERING
+	final long CLUSTERING_BITSET_BYTES;
+
+	// Stopping rule of CLUSTERING_SAMPLED: target half width of the
+	// confidence interval, quantile of the confidence level, maximum samples
+	final double CLUSTERING_SAMPLE_ERROR;
+	final double CLUSTERING_SAMPLE_Z;
+	final int CLUSTERING_SAMPLE_MAX;
+
+	// Seed of the randomized calculations
+	final long SEED;
+
+	// Source of the seeds that change at each measurement
+	private final SplittableRandom seeds;
+
+	public MeasureSettings(Properties props, SplittableRandom rand) {
+		PATH_LEN_ENGINE = ShortestPaths.Engine.valueOf(props.getProperty("pathLenEngine", "bitparallel").trim().toUpperCase());
+		PATH_LEN_APPROX_PRECISION = Integer.parseInt(props.getProperty("pathLenApproxPrecision", "8").trim());
+		String nodes = props.getProperty("nodes");
+		if (nodes != null && isMeasured(props, GraphProperty.PATH_LEN_APPROX))
+			NeighborhoodFunction.checkSize(Integer.parseInt(nodes.trim()), PATH_LEN_APPROX_PRECISION);
+		CLUSTERING_BITSET_BYTES = Long.parseLong(props.getProperty("clusteringBitsetMB", "64").trim()) << 20;
+		if (nodes != null && (isMeasured(props, GraphProperty.CLUSTERING) || isMeasured(props, GraphProperty.CLUSTERING_SAMPLED)) && BitsetAdjacency.matrixBytes(Integer.parseInt(nodes.trim())) <= CLUSTERING_BITSET_BYTES)
+			BitsetAdjacency.checkSize(Integer.parseInt(nodes.trim()));
+
+		CLUSTERING_SAMPLE_ERROR = Double.parseDouble(props.getProperty("clusteringSampleError", "0.001").trim());
+		double confidence = Double.parseDouble(props.getProperty("clusteringSampleConfidence", "0.95").trim());
+		if (confidence <= 0 || confidence >= 1)
+			throw new IllegalArgumentException("clusteringSampleConfidence must be in (0, 1)");
+		CLUSTERING_SAMPLE_Z = normalQuantile(1 - (1 - confidence) / 2);
+		CLUSTERING_SAMPLE_MAX = Integer.parseInt(props.getProperty("clusteringSampleMax", "100000").trim());
+		SEED = rand.nextLong();
+		seeds = rand.split();
+	}
+
+	private static boolean isMeasured(Properties props, GraphProperty property) {
+		for (String measure : props.getProperty("measureType", "").split(","))
+			if (measure.trim().equalsIgnoreCase(property.name()))
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return A new seed for a randomized calculation that has to change at
+	 *         each measurement
+	 */
+	synchronized long nextSeed() {
+		return seeds.nextLong();
+	}
+
+	/**
+	 * Rational approximation of the standard normal quantile (Abramowitz and
+	 * Stegun 26.2.23, absolute error below 4.5e-4)
+	 *
+	 * @param p
+	 *            Probability in [0.5, 1)
+	 */
+	private static double normalQuantile(double p) {
+		double t = Math.sqrt(-2 * Math.log(1 - p));
+		return t - (2.515517 + 0.802853 * t + 0.010328 * t * t) / (1 + 1.432788 * t + 0.189269 * t * t + 0.001308 * t * t * t);
+	}
+}
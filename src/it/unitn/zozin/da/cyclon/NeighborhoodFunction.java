@@ -0,0 +1,280 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Approximate neighborhood function of the overlay graph computed with
+ * HyperLogLog counters (HyperANF). The counter of each node estimates the
+ * number of nodes within distance t and is obtained at step t as the union
+ * of the counters of its out-neighbors at step t - 1. The iteration stops
+ * when no counter changes anymore. Each step is calculated in parallel over
+ * ranges of nodes.
+ *
+ * The average path length is the estimated sum of the distances divided by
+ * the estimated number of reachable pairs, both taken from the same counters
+ * so that their common scale bias cancels out.
+ */
+class NeighborhoodFunction {
+
+	static final int MIN_PRECISION = 4;
+	static final int MAX_PRECISION = 16;
+
+	private static final double[] INV_POW2 = new double[Long.SIZE + 1];
+
+	static {
+		for (int r = 0; r < INV_POW2.length; r++)
+			INV_POW2[r] = Math.pow(2, -r);
+	}
+
+	// SplitMix64 increment
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	// Largest array of counters, the JVM array size limit
+	private static final long MAX_COUNTERS_BYTES = Integer.MAX_VALUE - 8;
+
+	// Nodes of each parallel range, for each worker thread
+	private static final int RANGES_PER_WORKER = 8;
+	private static final int MIN_RANGE_SIZE = 64;
+
+	private final AdjacencySnapshot graph;
+	private final int precision;
+	private final int registers;
+
+	// Salt of the node hashes, the estimates depend on the hash function
+	private final long salt;
+
+	// Estimated average path length, calculated by the first caller while
+	// the others join it. The pool compensates the waiting workers, so the
+	// steps still run on all the pool threads
+	private final ForkJoinTask<Estimate> averagePathLength = ForkJoinTask.adapt(this::computeAveragePathLength);
+	private final AtomicBoolean started = new AtomicBoolean();
+
+	private byte[] current;
+	private byte[] next;
+	private double[] initial;
+	private double[] reached;
+	private double[] sums;
+
+	NeighborhoodFunction(AdjacencySnapshot graph, int precision, long salt) {
+		checkSize(graph.size(), precision);
+		this.graph = graph;
+		this.precision = precision;
+		this.registers = 1 << precision;
+		this.salt = salt;
+	}
+
+	/**
+	 * Check that the counters of the given nodes fit in an array
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the precision is out of range or too high for the nodes
+	 */
+	static void checkSize(int nodes, int precision) {
+		if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+			throw new IllegalArgumentException("HyperLogLog precision must be in [" + MIN_PRECISION + ", " + MAX_PRECISION + "]");
+		if (((long) nodes << precision) > MAX_COUNTERS_BYTES)
+			throw new IllegalArgumentException("HyperLogLog precision " + precision + " supports at most " + (MAX_COUNTERS_BYTES >> precision) + " nodes");
+	}
+
+	/**
+	 * @return Relative standard error of each HyperLogLog counter, thus of
+	 *         the estimated number of nodes within a given distance
+	 */
+	static double relativeError(int precision) {
+		return 1.04 / Math.sqrt(1 << precision);
+	}
+
+	/**
+	 * Estimated average shortest path length between the pairs of distinct
+	 * nodes connected by a path. The whole graph is processed on first call.
+	 *
+	 * @return the average with its standard error
+	 */
+	Estimate averagePathLength() {
+		if (!averagePathLength.isDone() && started.compareAndSet(false, true))
+			return averagePathLength.invoke();
+		return averagePathLength.join();
+	}
+
+	private Estimate computeAveragePathLength() {
+		int n = graph.size();
+		int size = counterBase(n);
+
+		current = new byte[size];
+		next = new byte[size];
+		initial = new double[n];
+		reached = new double[n];
+		sums = new double[n];
+
+		ForkJoinPool pool = ForkJoinTask.inForkJoinPool() ? ForkJoinTask.getPool() : ForkJoinPool.commonPool();
+		int rangeSize = Math.max(MIN_RANGE_SIZE, n / (pool.getParallelism() * RANGES_PER_WORKER) + 1);
+
+		new RangeTask(0, 0, n, rangeSize).invoke();
+
+		// Last step changing any counter, the estimated diameter
+		int steps = 0;
+		for (int t = 1; new RangeTask(t, 0, n, rangeSize).invoke(); t++) {
+			steps = t;
+
+			byte[] tmp = current;
+			current = next;
+			next = tmp;
+		}
+
+		double distances = 0;
+		double pairs = 0;
+		for (int v = 0; v < n; v++) {
+			distances += sums[v];
+			pairs += reached[v] - initial[v];
+		}
+
+		current = next = null;
+		initial = reached = sums = null;
+
+		if (pairs <= 0)
+			return new Estimate(0, 0);
+
+		double average = distances / pairs;
+		return new Estimate((float) average, (float) averageError(precision, steps, average));
+	}
+
+	/**
+	 * Standard error of the average path length, propagated to first order
+	 * from the counters. The average equals the sum over the steps t before
+	 * the last one of 1 - F(t), where F(t) is the estimated fraction of the
+	 * reachable pairs within distance t: each F(t) is the ratio of two sums of
+	 * counters with relative error at most e, so its error is about
+	 * sqrt(2) e F(t), and the errors of the steps are taken as fully
+	 * correlated. Since the sum of the F(t) is steps - average, the error is
+	 * sqrt(2) e (steps - average).
+	 */
+	private static double averageError(int precision, int steps, double average) {
+		return Math.sqrt(2) * relativeError(precision) * Math.max(0, steps - average);
+	}
+
+	/**
+	 * Step t of the nodes in a range: the union of the counters of their
+	 * out-neighbors, or the initial counters for step 0
+	 */
+	private class RangeTask extends RecursiveTask<Boolean> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int t;
+		private final int from;
+		private final int to;
+		private final int rangeSize;
+
+		RangeTask(int t, int from, int to, int rangeSize) {
+			this.t = t;
+			this.from = from;
+			this.to = to;
+			this.rangeSize = rangeSize;
+		}
+
+		@Override
+		protected Boolean compute() {
+			if (to - from > rangeSize) {
+				int mid = (from + to) >>> 1;
+				RangeTask left = new RangeTask(t, from, mid, rangeSize);
+				left.fork();
+				boolean right = new RangeTask(t, mid, to, rangeSize).compute();
+				return left.join() | right;
+			}
+
+			if (t == 0) {
+				for (int v = from; v < to; v++) {
+					add(current, v, v);
+					initial[v] = reached[v] = estimate(current, v);
+				}
+				return true;
+			}
+
+			int[] starts = graph.starts();
+			int[] ends = graph.ends();
+			int[] targets = graph.targets();
+			boolean changed = false;
+			for (int v = from; v < to; v++) {
+				int base = counterBase(v);
+				System.arraycopy(current, base, next, base, registers);
+
+				boolean nodeChanged = false;
+				for (int e = starts[v]; e < ends[v]; e++)
+					nodeChanged |= union(next, base, current, counterBase(targets[e]));
+
+				if (!nodeChanged)
+					continue;
+
+				changed = true;
+				double estimate = estimate(next, v);
+				sums[v] += t * (estimate - reached[v]);
+				reached[v] = estimate;
+			}
+			return changed;
+		}
+	}
+
+	// Index of the first register of a counter, the size is checked in the
+	// constructor
+	private int counterBase(int counter) {
+		return (int) ((long) counter * registers);
+	}
+
+	private void add(byte[] counters, int counter, int node) {
+		// SplitMix64 step, the increment keeps a zero input from hashing to 0
+		long hash = RandomStreams.mix((node ^ salt) + GOLDEN_GAMMA);
+		int register = (int) (hash >>> (Long.SIZE - precision));
+		// Position of the first 1 bit in the remaining bits
+		int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+		int i = counterBase(counter) + register;
+		if (rank > counters[i])
+			counters[i] = (byte) rank;
+	}
+
+	// Register-wise max of the source counter into the destination one
+	private boolean union(byte[] dst, int dstBase, byte[] src, int srcBase) {
+		boolean changed = false;
+		for (int r = 0; r < registers; r++) {
+			if (src[srcBase + r] > dst[dstBase + r]) {
+				dst[dstBase + r] = src[srcBase + r];
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	private double estimate(byte[] counters, int counter) {
+		int base = counterBase(counter);
+		double sum = 0;
+		int zeros = 0;
+		for (int r = 0; r < registers; r++) {
+			sum += INV_POW2[counters[base + r]];
+			if (counters[base + r] == 0)
+				zeros++;
+		}
+
+		double estimate = alpha() * registers * registers / sum;
+
+		// Small range correction (linear counting)
+		if (estimate <= 2.5 * registers && zeros > 0)
+			return registers * Math.log((double) registers / zeros);
+
+		return estimate;
+	}
+
+	private double alpha() {
+		switch (registers) {
+			case 16 :
+				return 0.673;
+			case 32 :
+				return 0.697;
+			case 64 :
+				return 0.709;
+			default :
+				return 0.7213 / (1 + 1.079 / registers);
+		}
+	}
+}
@@ -1,38 +1,44 @@
 package it.unitn.zozin.da.cyclon;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
-import java.util.Set;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import akka.actor.ActorRef;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
 
 /**
  * Neighbor cache to support nodes for Cyclon protocol
+ *
+ * Entries are kept in fixed-capacity parallel arrays: live entries always
+ * occupy the slots [0, size) and removals move the last entry into the freed
+ * slot. Ages are stored as the epoch in which the entry would have had age 0,
+ * so aging all the entries is a single counter increment.
  */
 class NeighborsCache {
 
 	private final int MAX_SIZE;
-	private final Random rand;
+	private final SplittableRandom rand;
 
-	private final Map<ActorRef, Integer> cache;
+	// Placeholder for no node
+	static final int NO_NODE = -1;
 
-	public NeighborsCache(int maxSize) {
+	private final int[] ids;
+	private final int[] births;
+	private int size;
+
+	// Incremented on every aging step, entry age is (epoch - birth)
+	private int epoch;
+
+	public NeighborsCache(int maxSize, SplittableRandom rand) {
 		this.MAX_SIZE = maxSize;
-		this.rand = new Random();
-		cache = new HashMap<>(MAX_SIZE);
+		this.rand = rand;
+		this.ids = new int[maxSize];
+		this.births = new int[maxSize];
 	}
 
 	/**
 	 * Increase age of all entries in cache
 	 */
 	public void increaseNeighborsAge() {
-		cache.replaceAll((k, v) -> v + 1);
+		epoch++;
 	}
 
 	/**
@@ -41,18 +47,30 @@ class NeighborsCache {
 	 * 
 	 * @param newEntries
 	 */
-	public void addNeighbors(Map<ActorRef, Integer> newEntries) {
-		for (Entry<ActorRef, Integer> n : newEntries.entrySet()) {
+	public void addNeighbors(NodeList newEntries) {
+		for (int i = 0; i < newEntries.size(); i++) {
 			// Stop when there are no more free slots
-			if (MAX_SIZE - cache.size() == 0)
+			if (size == MAX_SIZE)
 				break;
 
-			cache.putIfAbsent(n.getKey(), n.getValue());
+			if (indexOf(newEntries.id(i)) < 0)
+				append(newEntries.id(i), newEntries.age(i));
 		}
 	}
 
-	public ActorRef getRandomNeighbor() {
-		return cache.keySet().stream().limit(rand.nextInt(cache.size()) + 1).reduce((f, s) -> s).get();
+	/**
+	 * Add the specified node to a free slot (if not already present)
+	 *
+	 * @param id
+	 * @param age
+	 */
+	public void addNeighbor(int id, int age) {
+		if (size < MAX_SIZE && indexOf(id) < 0)
+			append(id, age);
+	}
+
+	public int getRandomNeighbor() {
+		return ids[rand.nextInt(size)];
 	}
 
 	/**
@@ -61,8 +79,8 @@ class NeighborsCache {
 	 * @param max
 	 * @return The removed neighbors
 	 */
-	public Map<ActorRef, Integer> removeRandomNeighbors(int max) {
-		return removeRandomNeighbors(max, null);
+	public NodeList removeRandomNeighbors(int max) {
+		return removeRandomNeighbors(max, NO_NODE);
 	}
 
 	/**
@@ -73,57 +91,122 @@ class NeighborsCache {
 	 * @param exclude
 	 * @return The removed neighbors
 	 */
-	public Map<ActorRef, Integer> removeRandomNeighbors(int max, ActorRef exclude) {
-		List<Integer> toRemove = IntStream.range(0, cache.size()).boxed().collect(Collectors.toList());
-		Collections.shuffle(toRemove, rand);
-		// Limit the numbe of elements to be removed to max + 1 (the potentially
-		// excluded element could have been selected)
-		toRemove = toRemove.subList(0, Math.min(max + 1, toRemove.size()));
-
-		Map<ActorRef, Integer> removed = new HashMap<>();
-
-		int index = 0;
-		Iterator<Entry<ActorRef, Integer>> i = cache.entrySet().iterator();
-		while (i.hasNext() && removed.size() < max) {
-			Entry<ActorRef, Integer> e = i.next();
-
-			// Remove element with current index from the list of the ones
-			// selected to be removed
-			// If the current index was not present the entry removal is skipped
-			if (!toRemove.remove((Integer) index++))
-				continue;
-
-			// Skip if excluded from removal
-			if (exclude != null && e.equals(exclude))
-				continue;
-
-			removed.put(e.getKey(), e.getValue());
-			i.remove();
+	public NodeList removeRandomNeighbors(int max, int exclude) {
+		// Park the excluded entry in the last slot so that the candidates
+		// are the ones in [0, candidates)
+		int candidates = size;
+		int excluded = (exclude != NO_NODE) ? indexOf(exclude) : -1;
+		if (excluded >= 0) {
+			candidates--;
+			swap(excluded, candidates);
+		}
+
+		int count = Math.min(max, candidates);
+		int[] removedIds = new int[count];
+		int[] removedAges = new int[count];
+
+		// Partial Fisher-Yates: move the selected entries at the end of the
+		// candidates range
+		for (int i = 0; i < count; i++) {
+			int last = candidates - 1 - i;
+			swap(rand.nextInt(last + 1), last);
+			removedIds[i] = ids[last];
+			removedAges[i] = epoch - births[last];
 		}
 
-		return removed;
+		int remaining = candidates - count;
+
+		// Bring back the excluded entry right after the remaining ones
+		if (excluded >= 0) {
+			swap(candidates, remaining);
+			remaining++;
+		}
+
+		size = remaining;
+
+		return new NodeList(removedIds, removedAges);
 	}
 
-	public Entry<ActorRef, Integer> removeOldestNeighbor() {
-		Entry<ActorRef, Integer> oldest = cache.entrySet().stream().collect(Collectors.maxBy((e1, e2) -> e1.getValue().compareTo(e2.getValue()))).get();
-		cache.remove(oldest.getKey());
-		return oldest;
+	/**
+	 * Remove the neighbor with the highest age from the cache
+	 *
+	 * @return The removed neighbor
+	 * @throws NoSuchElementException
+	 *             If the cache is empty
+	 */
+	public NodeList removeOldestNeighbor() {
+		if (size == 0)
+			throw new NoSuchElementException();
+
+		int oldest = 0;
+		for (int i = 1; i < size; i++)
+			if (births[i] < births[oldest])
+				oldest = i;
+
+		NodeList entry = NodeList.of(ids[oldest], epoch - births[oldest]);
+		removeAt(oldest);
+		return entry;
 	}
 
 	public int size() {
-		return cache.size();
+		return size;
 	}
 
 	public int maxSize() {
 		return MAX_SIZE;
 	}
 
-	public Set<ActorRef> getNeighbors() {
-		return Collections.unmodifiableSet(cache.keySet());
+	/**
+	 * @return A copy of the ids of the nodes currently in cache
+	 */
+	public int[] getNeighbors() {
+		return Arrays.copyOf(ids, size);
+	}
+
+	/**
+	 * @return The entries currently in cache with their ages
+	 */
+	public NodeList getEntries() {
+		int[] ages = new int[size];
+		for (int i = 0; i < size; i++)
+			ages[i] = epoch - births[i];
+		return new NodeList(Arrays.copyOf(ids, size), ages);
+	}
+
+	private int indexOf(int id) {
+		for (int i = 0; i < size; i++)
+			if (ids[i] == id)
+				return i;
+		return -1;
+	}
+
+	private void append(int id, int age) {
+		ids[size] = id;
+		births[size] = epoch - age;
+		size++;
+	}
+
+	private void removeAt(int index) {
+		size--;
+		ids[index] = ids[size];
+		births[index] = births[size];
+	}
+
+	private void swap(int i, int j) {
+		int id = ids[i];
+		ids[i] = ids[j];
+		ids[j] = id;
+
+		int birth = births[i];
+		births[i] = births[j];
+		births[j] = birth;
 	}
 
 	@Override
 	public String toString() {
-		return "NeighborsCache " + cache;
+		StringBuilder b = new StringBuilder("NeighborsCache {");
+		for (int i = 0; i < size; i++)
+			b.append((i > 0) ? ", " : "").append(ids[i]).append('=').append(epoch - births[i]);
+		return b.append('}').toString();
 	}
-}
\ No newline at end of file
+}
@@ -1,15 +1,13 @@
 package it.unitn.zozin.da.cyclon;
 
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.SplittableRandom;
 import akka.actor.AbstractFSM;
 import akka.actor.ActorRef;
 import it.unitn.zozin.da.cyclon.GraphActor.EndBootMessage;
-import it.unitn.zozin.da.cyclon.GraphActor.StartBootMessage;
+import it.unitn.zozin.da.cyclon.GraphActor.StartResumeMessage;
 import it.unitn.zozin.da.cyclon.NodeActor.ReplyStateData;
+import it.unitn.zozin.da.cyclon.SimulationMetrics.MessageType;
 
 /**
  * Actor following the Cyclon protocol
@@ -26,10 +24,10 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 	class ReplyStateData {
 
 		private final int total;
-		private final Map<ActorRef, Integer> requestList;
+		private final NodeList requestList;
 		private int count = 0;
 
-		public ReplyStateData(int total, Map<ActorRef, Integer> requestList) {
+		public ReplyStateData(int total, NodeList requestList) {
 			this.total = total;
 			this.requestList = requestList;
 		}
@@ -48,6 +46,7 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 
 		// Initialize the node
 		when(State.Uninitialized, matchEvent(StartBootMessage.class, (initMsg, data) -> processBootNode(initMsg)));
+		when(State.Uninitialized, matchEvent(StartResumeMessage.class, (resumeMsg, data) -> processResumeNode(resumeMsg)));
 
 		// Start executing round (move to WaitingForReply state)
 		when(State.Idle, matchEvent(StartRound.class, (startRoundMsg, data) -> processStartRound()));
@@ -66,24 +65,52 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 		when(State.WaitingForReply, matchEvent(CyclonJoin.class, ReplyStateData.class, (joinMsg, pendingReqData) -> processJoinRequestOnWaiting(joinMsg, pendingReqData.requestList)));
 		when(State.WaitingForReply, matchEvent(CyclonNodeRequest.class, ReplyStateData.class, (reqMsg, pendingReqData) -> processCyclonRequestOnWaiting(reqMsg, pendingReqData.requestList)));
 
-		// Process measure and calc requests (no state transition)
-		when(State.Idle, matchEvent(StartMeasureMessage.class, (startMeasureMsg, data) -> processMeasureRequest()));
-		when(State.Idle, matchEvent(NodeCalcTask.class, (startCalcMsg, data) -> processCalcRequest(startCalcMsg)));
+		// Process measure requests (no state transition)
+		when(State.Idle, matchEvent(StartMeasureMessage.class, (startMeasureMsg, data) -> processMeasureRequest(startMeasureMsg)));
+
+		// Process checkpoint requests (no state transition)
+		when(State.Idle, matchEvent(StartCheckpointMessage.class, (checkpointMsg, data) -> processCheckpointRequest(checkpointMsg)));
 	}
+	private final int id;
 	private final int shuffleLength;
 
 	private boolean isJoined = false;
 
 	private final NeighborsCache cache;
 
-	public NodeActor(int cacheSize, int shuffleLength) {
-		this.cache = new NeighborsCache(cacheSize);
+	private final SimulationMetrics metrics;
+
+	// Resolves node ids to actors, available after boot
+	private NodeRegistry nodes;
+
+	// Sorted neighbors sent in the last measurement
+	private int[] reportedNeighbors = new int[0];
+
+	public NodeActor(int id, int cacheSize, int shuffleLength, SplittableRandom rand, SimulationMetrics metrics) {
+		this.id = id;
+		this.metrics = metrics;
+		this.cache = new NeighborsCache(cacheSize, rand);
 		this.shuffleLength = shuffleLength;
 	}
 
 	private akka.actor.FSM.State<State, ReplyStateData> processBootNode(StartBootMessage message) {
-		// Initialize cache with the boot initializer
-		cache.addNeighbors(Collections.singletonMap(message.getIntroducerOf(self()), 0));
+		nodes = message.nodes;
+
+		// Initialize cache with the boot introducers
+		for (int introducer : message.introducers)
+			cache.addNeighbor(introducer, 0);
+
+		sender().tell(new EndBootMessage(), self());
+
+		return goTo(State.Idle);
+	}
+
+	private akka.actor.FSM.State<State, ReplyStateData> processResumeNode(StartResumeMessage message) {
+		nodes = message.nodes;
+
+		// Restore the protocol state saved in the checkpoint
+		cache.addNeighbors(message.checkpoint.entries(id));
+		isJoined = message.checkpoint.joined(id);
 
 		sender().tell(new EndBootMessage(), self());
 
@@ -98,18 +125,19 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 	}
 
 	private akka.actor.FSM.State<State, ReplyStateData> performJoin() {
-		ActorRef introducer = cache.getRandomNeighbor();
+		ActorRef introducer = nodes.get(cache.getRandomNeighbor());
 
-		introducer.tell(new CyclonJoin(JOIN_TTL + 1), self());
+		introducer.tell(new CyclonJoin(id, JOIN_TTL + 1, 0), self());
+		metrics.countMessage(MessageType.JOIN);
 
-		return goTo(State.WaitingForReply).using(new ReplyStateData(cache.maxSize(), Collections.emptyMap()));
+		return goTo(State.WaitingForReply).using(new ReplyStateData(cache.maxSize(), NodeList.EMPTY));
 	}
 
 	private akka.actor.FSM.State<State, ReplyStateData> processJoinRequest(CyclonJoin joinReq) {
-		return processJoinRequestOnWaiting(joinReq, Collections.emptyMap());
+		return processJoinRequestOnWaiting(joinReq, NodeList.EMPTY);
 	}
 
-	private akka.actor.FSM.State<State, ReplyStateData> processJoinRequestOnWaiting(CyclonJoin joinReq, Map<ActorRef, Integer> pendingRequestList) {
+	private akka.actor.FSM.State<State, ReplyStateData> processJoinRequestOnWaiting(CyclonJoin joinReq, NodeList pendingRequestList) {
 		joinReq = joinReq.getAged();
 
 		// This is the introducer of the sender node
@@ -120,7 +148,7 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 		} else {
 			if (joinReq.isTimedOut()) {
 				// If random walk ends here
-				sendCyclonJoinAnswer(pendingRequestList);
+				sendCyclonJoinAnswer(joinReq, pendingRequestList);
 			} else {
 				forwardJoin(joinReq);
 			}
@@ -130,57 +158,62 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 	}
 
 	private void forwardJoin(CyclonJoin joinReq) {
-		cache.getRandomNeighbor().forward(joinReq, context());
+		nodes.get(cache.getRandomNeighbor()).forward(joinReq.getForwarded(), context());
+		metrics.countMessage(MessageType.JOIN_FORWARD);
 	}
 
-	private void sendCyclonJoinAnswer(Map<ActorRef, Integer> pendingRequestList) {
-		Map<ActorRef, Integer> selected = cache.removeRandomNeighbors(1, sender());
-		cache.addNeighbors(Collections.singletonMap(sender(), 0));
+	private void sendCyclonJoinAnswer(CyclonJoin joinReq, NodeList pendingRequestList) {
+		NodeList selected = cache.removeRandomNeighbors(1, joinReq.node);
+		cache.addNeighbor(joinReq.node, 0);
 
-		if (selected.isEmpty())
-			pendingRequestList.entrySet().stream().limit(1).forEach((e) -> selected.put(e.getKey(), e.getValue()));
+		if (selected.size() == 0 && pendingRequestList.size() > 0) {
+			selected = selected.append(pendingRequestList, 1);
+			metrics.countShortFilled();
+		}
 
-		sender().tell(new CyclonNodeAnswer(selected), self());
+		sender().tell(new CyclonNodeAnswer(id, selected), self());
+		metrics.countMessage(MessageType.JOIN_ANSWER);
+		metrics.countJoinHops(joinReq.hops);
 	}
 
 	private akka.actor.FSM.State<State, ReplyStateData> sendCyclonRequest() {
 		cache.increaseNeighborsAge();
 
-		Map<ActorRef, Integer> replaceable = new HashMap<>();
-
-		Entry<ActorRef, Integer> dest = cache.removeOldestNeighbor();
-		replaceable.put(dest.getKey(), dest.getValue());
+		NodeList dest = cache.removeOldestNeighbor();
 
 		// Get other random neighbors
-		Map<ActorRef, Integer> requestNodes = cache.removeRandomNeighbors(shuffleLength - 1);
-		replaceable.putAll(requestNodes);
+		NodeList requestNodes = cache.removeRandomNeighbors(shuffleLength - 1);
+		NodeList replaceable = dest.append(requestNodes, requestNodes.size());
 
 		// Add fresh local node address
-		requestNodes.put(self(), 0);
+		requestNodes = requestNodes.with(id, 0);
 
-		dest.getKey().tell(new CyclonNodeRequest(requestNodes), self());
+		nodes.get(dest.id(0)).tell(new CyclonNodeRequest(id, requestNodes), self());
+		metrics.countMessage(MessageType.REQUEST);
 
 		return goTo(State.WaitingForReply).using(new ReplyStateData(1, replaceable));
 	}
 
 	private akka.actor.FSM.State<State, ReplyStateData> processCyclonRequest(CyclonNodeRequest req) {
-		return processCyclonRequestOnWaiting(req, Collections.emptyMap());
+		return processCyclonRequestOnWaiting(req, NodeList.EMPTY);
 	}
 
-	private akka.actor.FSM.State<State, ReplyStateData> processCyclonRequestOnWaiting(CyclonNodeRequest req, Map<ActorRef, Integer> pendingRequestList) {
+	private akka.actor.FSM.State<State, ReplyStateData> processCyclonRequestOnWaiting(CyclonNodeRequest req, NodeList pendingRequestList) {
 		// Remove itself (if present)
-		req.nodes.remove(self());
+		NodeList reqNodes = req.nodes.without(id);
 
 		// Answer contains at most the same amount of entries as the request
-		Map<ActorRef, Integer> ansNodes = cache.removeRandomNeighbors(req.nodes.size(), sender());
+		NodeList ansNodes = cache.removeRandomNeighbors(reqNodes.size(), req.sender);
 
-		if (ansNodes.size() < req.nodes.size()) {
-			pendingRequestList.entrySet().stream().limit(req.nodes.size() - ansNodes.size()).forEach((e) -> ansNodes.put(e.getKey(), e.getValue()));
+		if (ansNodes.size() < reqNodes.size() && pendingRequestList.size() > 0) {
+			ansNodes = ansNodes.append(pendingRequestList, reqNodes.size() - ansNodes.size());
+			metrics.countShortFilled();
 		}
 
-		sender().tell(new CyclonNodeAnswer(ansNodes), self());
+		sender().tell(new CyclonNodeAnswer(id, ansNodes), self());
+		metrics.countMessage(MessageType.ANSWER);
 
-		cache.addNeighbors(req.nodes);
+		cache.addNeighbors(reqNodes);
 
 		return stay();
 	}
@@ -188,11 +221,8 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 	private akka.actor.FSM.State<State, ReplyStateData> processCyclonAnswer(CyclonNodeAnswer answer, ReplyStateData ansCount) {
 		ansCount.increaseOne();
 
-		// Remove itself (if present)
-		answer.nodes.remove(self());
-
-		// Save received nodes in cache
-		cache.addNeighbors(answer.nodes);
+		// Save received nodes in cache (except itself, if present)
+		cache.addNeighbors(answer.nodes.without(id));
 
 		// Fill cache by storing again the entries sent in the request
 		cache.addNeighbors(ansCount.requestList);
@@ -208,30 +238,62 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 	}
 
 	private void sendRoundCompletedStatus() {
+		metrics.nodeRoundCompleted(cache.size());
 		context().parent().tell(new EndRound(), self());
 	}
 
-	private akka.actor.FSM.State<State, ReplyStateData> processMeasureRequest() {
-		EndMeasureMessage m = new EndMeasureMessage(cache.getNeighbors());
-		sender().tell(m, self());
+	private akka.actor.FSM.State<State, ReplyStateData> processMeasureRequest(StartMeasureMessage message) {
+		int[] neighbors = cache.getNeighbors();
+		Arrays.sort(neighbors);
+
+		message.buffer.put(id, difference(neighbors, reportedNeighbors), difference(reportedNeighbors, neighbors));
+		reportedNeighbors = neighbors;
+
 		return stay();
 	}
 
-	private akka.actor.FSM.State<State, ReplyStateData> processCalcRequest(NodeCalcTask message) {
-		sender().tell(new NodeCalcResult(message.calculate()), self());
+	private akka.actor.FSM.State<State, ReplyStateData> processCheckpointRequest(StartCheckpointMessage message) {
+		message.writer.put(id, isJoined, cache.getEntries());
 		return stay();
 	}
 
+	/**
+	 * @return The elements of the sorted array a not present in the sorted
+	 *         array b
+	 */
+	private static int[] difference(int[] a, int[] b) {
+		int[] diff = new int[a.length];
+		int size = 0;
+		int j = 0;
+		for (int i = 0; i < a.length; i++) {
+			while (j < b.length && b[j] < a[i])
+				j++;
+			if (j == b.length || b[j] != a[i])
+				diff[size++] = a[i];
+		}
+		return Arrays.copyOf(diff, size);
+	}
+
 	public static class CyclonJoin {
 
+		// The joining node
+		final int node;
 		final int TTL;
+		// Forwards of the random walk so far
+		final int hops;
 
-		public CyclonJoin(int TTL) {
+		public CyclonJoin(int node, int TTL, int hops) {
+			this.node = node;
 			this.TTL = TTL;
+			this.hops = hops;
 		}
 
 		public CyclonJoin getAged() {
-			return new CyclonJoin(TTL - 1);
+			return new CyclonJoin(node, TTL - 1, hops);
+		}
+
+		public CyclonJoin getForwarded() {
+			return new CyclonJoin(node, TTL, hops + 1);
 		}
 
 		public boolean isTimedOut() {
@@ -241,30 +303,32 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 
 	public static abstract class CyclonNodeList {
 
-		final Map<ActorRef, Integer> nodes;
+		final int sender;
+		final NodeList nodes;
 
-		public CyclonNodeList(Map<ActorRef, Integer> nodes) {
+		public CyclonNodeList(int sender, NodeList nodes) {
+			this.sender = sender;
 			this.nodes = nodes;
 		}
 
 		@Override
 		public String toString() {
-			return "CyclonNodeList [nodes=" + nodes + "]";
+			return "CyclonNodeList [sender=" + sender + ", nodes=" + nodes + "]";
 		}
 	}
 
 	public static class CyclonNodeRequest extends CyclonNodeList {
 
-		public CyclonNodeRequest(Map<ActorRef, Integer> nodes) {
-			super(nodes);
+		public CyclonNodeRequest(int sender, NodeList nodes) {
+			super(sender, nodes);
 		}
 
 	}
 
 	public static class CyclonNodeAnswer extends CyclonNodeList {
 
-		public CyclonNodeAnswer(Map<ActorRef, Integer> nodes) {
-			super(nodes);
+		public CyclonNodeAnswer(int sender, NodeList nodes) {
+			super(sender, nodes);
 		}
 	}
 
@@ -276,47 +340,37 @@ public class NodeActor extends AbstractFSM<NodeActor.State, ReplyStateData> {
 
 	}
 
-	public static class StartMeasureMessage {
-
-	}
+	public static class StartBootMessage {
 
-	public static class EndMeasureMessage {
+		final NodeRegistry nodes;
 
-		final Set<ActorRef> neighbors;
+		// Introducers of the receiving node only
+		final int[] introducers;
 
-		public EndMeasureMessage(Set<ActorRef> neighbors) {
-			this.neighbors = neighbors;
+		public StartBootMessage(NodeRegistry nodes, int[] introducers) {
+			this.nodes = nodes;
+			this.introducers = introducers;
 		}
 	}
 
-	public static class NodeCalcTask {
+	public static class StartCheckpointMessage {
 
-		private final int node;
-		private final boolean[][] graph;
-		private final GraphProperty param;
+		// Where to write the node state
+		final Checkpoint.Writer writer;
 
-		public NodeCalcTask(boolean[][] graph, GraphProperty param, int node) {
-			this.graph = graph;
-			this.param = param;
-			this.node = node;
-		}
-
-		/**
-		 * Executes the time consuming calculation in the calling thread
-		 * 
-		 * @return the calculation result
-		 */
-		public Object calculate() {
-			return param.calculate(node, graph);
+		public StartCheckpointMessage(Checkpoint.Writer writer) {
+			this.writer = writer;
 		}
 	}
 
-	public static class NodeCalcResult {
+	public static class StartMeasureMessage {
 
-		final Object result;
+		// Where to write the changes in the node neighbors since the
+		// previous measurement
+		final SnapshotBuffer buffer;
 
-		public NodeCalcResult(Object result) {
-			this.result = result;
+		public StartMeasureMessage(SnapshotBuffer buffer) {
+			this.buffer = buffer;
 		}
 	}
 }
\ No newline at end of file
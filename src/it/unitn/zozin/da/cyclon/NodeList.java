@@ -0,0 +1,104 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.Arrays;
+
+/**
+ * Immutable list of node descriptors (dense node id and age) as exchanged by
+ * Cyclon messages
+ */
+final class NodeList {
+
+	static final NodeList EMPTY = new NodeList(new int[0], new int[0]);
+
+	private final int[] ids;
+	private final int[] ages;
+
+	NodeList(int[] ids, int[] ages) {
+		this.ids = ids;
+		this.ages = ages;
+	}
+
+	static NodeList of(int id, int age) {
+		return new NodeList(new int[]{id}, new int[]{age});
+	}
+
+	public int size() {
+		return ids.length;
+	}
+
+	public int id(int index) {
+		return ids[index];
+	}
+
+	public int age(int index) {
+		return ages[index];
+	}
+
+	public boolean contains(int id) {
+		for (int i : ids)
+			if (i == id)
+				return true;
+		return false;
+	}
+
+	/**
+	 * @return A list with all the descriptors except the one of the given node
+	 */
+	public NodeList without(int id) {
+		for (int i = 0; i < ids.length; i++) {
+			if (ids[i] != id)
+				continue;
+
+			int[] newIds = new int[ids.length - 1];
+			int[] newAges = new int[ids.length - 1];
+			System.arraycopy(ids, 0, newIds, 0, i);
+			System.arraycopy(ages, 0, newAges, 0, i);
+			System.arraycopy(ids, i + 1, newIds, i, ids.length - i - 1);
+			System.arraycopy(ages, i + 1, newAges, i, ids.length - i - 1);
+			return new NodeList(newIds, newAges);
+		}
+		return this;
+	}
+
+	/**
+	 * @return A list with the given descriptor appended (if not already
+	 *         present)
+	 */
+	public NodeList with(int id, int age) {
+		return append(of(id, age), 1);
+	}
+
+	/**
+	 * Append up to max descriptors from the other list, excluding duplicated
+	 * addresses
+	 *
+	 * @param other
+	 * @param max
+	 * @return The resulting list
+	 */
+	public NodeList append(NodeList other, int max) {
+		int[] newIds = Arrays.copyOf(ids, ids.length + Math.min(max, other.size()));
+		int[] newAges = Arrays.copyOf(ages, newIds.length);
+		int size = ids.length;
+
+		for (int i = 0; i < other.size() && size < newIds.length; i++) {
+			if (contains(other.ids[i]))
+				continue;
+			newIds[size] = other.ids[i];
+			newAges[size] = other.ages[i];
+			size++;
+		}
+
+		if (size == newIds.length)
+			return new NodeList(newIds, newAges);
+		return new NodeList(Arrays.copyOf(newIds, size), Arrays.copyOf(newAges, size));
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder b = new StringBuilder("NodeList {");
+		for (int i = 0; i < ids.length; i++)
+			b.append((i > 0) ? ", " : "").append(ids[i]).append('=').append(ages[i]);
+		return b.append('}').toString();
+	}
+}
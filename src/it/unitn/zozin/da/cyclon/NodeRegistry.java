@@ -0,0 +1,28 @@
+package it.unitn.zozin.da.cyclon;
+
+import akka.actor.ActorRef;
+
+/**
+ * Lookup table from the dense node ids assigned at creation to the node
+ * actors
+ */
+public class NodeRegistry {
+
+	private final ActorRef[] nodes;
+
+	public NodeRegistry(int size) {
+		this.nodes = new ActorRef[size];
+	}
+
+	void register(int id, ActorRef node) {
+		nodes[id] = node;
+	}
+
+	public ActorRef get(int id) {
+		return nodes[id];
+	}
+
+	public int size() {
+		return nodes.length;
+	}
+}
@@ -0,0 +1,70 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.Arrays;
+
+/**
+ * Adjacency of the overlay kept across measurements and patched with the
+ * cache changes reported by the nodes. Every node owns a fixed-capacity row
+ * of sorted neighbor ids in a single flat array, read in place by the
+ * snapshots, so a measurement only costs the patched rows.
+ */
+class OverlayAdjacency {
+
+	private final int[] neighbors;
+	private final int[] starts;
+	private final int[] ends;
+	private int edges;
+
+	OverlayAdjacency(int nodes, int capacity) {
+		this.neighbors = new int[nodes * capacity];
+		this.starts = new int[nodes];
+		this.ends = new int[nodes];
+		for (int n = 0; n < nodes; n++)
+			starts[n] = ends[n] = n * capacity;
+	}
+
+	public int size() {
+		return ends.length;
+	}
+
+	/**
+	 * Apply the changes in the neighbors of a node since the last patch
+	 *
+	 * @param node
+	 * @param added
+	 *            Neighbors not present in the last patch
+	 * @param removed
+	 *            Neighbors not present anymore
+	 */
+	public void patch(int node, int[] added, int[] removed) {
+		int base = starts[node];
+
+		for (int id : removed) {
+			int pos = Arrays.binarySearch(neighbors, base, ends[node], id);
+			if (pos < 0)
+				continue;
+			System.arraycopy(neighbors, pos + 1, neighbors, pos, ends[node] - pos - 1);
+			ends[node]--;
+			edges--;
+		}
+
+		for (int id : added) {
+			int pos = Arrays.binarySearch(neighbors, base, ends[node], id);
+			if (pos >= 0)
+				continue;
+			pos = -pos - 1;
+			System.arraycopy(neighbors, pos, neighbors, pos + 1, ends[node] - pos);
+			neighbors[pos] = id;
+			ends[node]++;
+			edges++;
+		}
+	}
+
+	/**
+	 * @return A snapshot reading the rows in place, valid until the next
+	 *         patch
+	 */
+	public AdjacencySnapshot snapshot() {
+		return AdjacencySnapshot.fromPaddedRows(starts, ends, neighbors, edges);
+	}
+}
@@ -0,0 +1,22 @@
+package it.unitn.zozin.da.cyclon;
+
+/**
+ * Partial value of a graph property over contiguous ranges of nodes
+ */
+abstract class PropertyAccumulator {
+
+	/**
+	 * Add the values of the nodes in [from, to)
+	 */
+	abstract void accumulate(int from, int to);
+
+	/**
+	 * Merge the partial value of another accumulator of the same property
+	 */
+	abstract void combine(PropertyAccumulator other);
+
+	/**
+	 * @return The final value of the property
+	 */
+	abstract Object result();
+}
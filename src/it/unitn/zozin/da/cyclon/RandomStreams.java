@@ -0,0 +1,63 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.SplittableRandom;
+
+/**
+ * Derives the independent random streams of a simulation from its seed.
+ * Every stream is identified by its owner (a node id, the topology generator
+ * or the measurements), so the streams do not depend on the order in which
+ * the owners are created.
+ */
+class RandomStreams {
+
+	private static final long NODE_STREAM = 1;
+	private static final long TOPOLOGY_STREAM = 2;
+	private static final long MEASURE_STREAM = 3;
+
+	private final long seed;
+
+	RandomStreams(long seed) {
+		this.seed = seed;
+	}
+
+	long seed() {
+		return seed;
+	}
+
+	/**
+	 * @param id
+	 * @return The stream used by the protocol of node id
+	 */
+	SplittableRandom forNode(int id) {
+		return stream(NODE_STREAM, id);
+	}
+
+	/**
+	 * @return The stream used to generate the boot topology
+	 */
+	SplittableRandom forTopology() {
+		return stream(TOPOLOGY_STREAM, 0);
+	}
+
+	/**
+	 * @return The stream used by the graph property calculations
+	 */
+	SplittableRandom forMeasure() {
+		return stream(MEASURE_STREAM, 0);
+	}
+
+	private SplittableRandom stream(long owner, long index) {
+		// Seeds are scrambled since SplittableRandom instances with close
+		// seeds generate overlapping sequences
+		return new SplittableRandom(mix(seed ^ mix((owner << 32) | index)));
+	}
+
+	/**
+	 * SplitMix64 finalizer, also used to hash the node ids
+	 */
+	static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
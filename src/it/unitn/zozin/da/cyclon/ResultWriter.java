@@ -0,0 +1,96 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import it.unitn.zozin.da.cyclon.GraphActor.RoundData;
+import it.unitn.zozin.da.cyclon.SimulationActor.Configuration;
+
+/**
+ * Writes the measured values as soon as each round is measured, one output
+ * for each measured property. Outputs are buffered and flushed periodically,
+ * so that an interrupted simulation keeps the rounds measured so far. A
+ * simulation resumed from a checkpoint appends to the existing outputs.
+ */
+class ResultWriter {
+
+	enum Format {
+		TEXT, BINARY
+	}
+
+	private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(5);
+
+	private final Configuration conf;
+
+	// Only the outputs of the configured format are open
+	private final PrintWriter[] text;
+	private final BinaryOutput[] binary;
+
+	private long lastFlush = System.nanoTime();
+
+	/**
+	 * @param conf
+	 * @param dir
+	 *            Directory where the outputs are created
+	 */
+	ResultWriter(Configuration conf, File dir) throws IOException {
+		this.conf = conf;
+		this.text = new PrintWriter[conf.OUTPUT_FORMAT == Format.TEXT ? conf.MEASURES.length : 0];
+		this.binary = new BinaryOutput[conf.OUTPUT_FORMAT == Format.BINARY ? conf.MEASURES.length : 0];
+
+		boolean append = conf.RESUME_FROM != null;
+		for (int p = 0; p < conf.MEASURES.length; p++) {
+			String description = String.format("#Simulation %s on %s (nodes=%d rounds=%d cache=%d shuffle=%d topology=%s seed=%d measure=%s)\n", append ? "resumed from " + conf.RESUME_FROM : "started", new Date().toString(), conf.NODES, conf.ROUNDS, conf.CYCLON_CACHE_SIZE, conf.CYCLON_SHUFFLE_LENGTH, conf.BOOT_TOPOLOGY, conf.RANDOM.seed(), conf.MEASURES[p]);
+			File file = new File(dir, outputFile(conf, p));
+
+			if (conf.OUTPUT_FORMAT == Format.TEXT) {
+				text[p] = new PrintWriter(new FileOutputStream(file, append));
+				text[p].write(description);
+			} else {
+				binary[p] = new BinaryOutput(file, conf.MEASURES[p], description, append);
+			}
+		}
+	}
+
+	/**
+	 * @return The output file of the p-th measured property, OUTPUT.dat (or
+	 *         OUTPUT.bin) when a single property is measured
+	 */
+	static String outputFile(Configuration conf, int p) {
+		String extension = conf.OUTPUT_FORMAT == Format.TEXT ? ".dat" : ".bin";
+		if (conf.MEASURES.length == 1)
+			return "OUTPUT" + extension;
+		return "OUTPUT_" + conf.MEASURES[p] + extension;
+	}
+
+	/**
+	 * Write the properties measured in a round
+	 *
+	 * @param round
+	 * @param data
+	 */
+	void write(int round, RoundData data) throws IOException {
+		for (int p = 0; p < text.length; p++)
+			text[p].write(conf.MEASURES[p].dataToString(data.roundValues[p], round));
+		for (int p = 0; p < binary.length; p++)
+			binary[p].write(round, data.roundValues[p]);
+
+		if (System.nanoTime() - lastFlush > FLUSH_INTERVAL) {
+			for (PrintWriter w : text)
+				w.flush();
+			for (BinaryOutput w : binary)
+				w.flush();
+			lastFlush = System.nanoTime();
+		}
+	}
+
+	void close() throws IOException {
+		for (PrintWriter w : text)
+			w.close();
+		for (BinaryOutput w : binary)
+			w.close();
+	}
+}
@@ -0,0 +1,79 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.SplittableRandom;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Average of the values of uniformly sampled nodes. Nodes are sampled in
+ * batches until the confidence interval of the mean is within the target
+ * error or the maximum number of samples is reached. The result is an
+ * {@link Estimate} with the half width of the confidence interval as error.
+ */
+class SampledAverageAccumulator extends PropertyAccumulator {
+
+	private static final int BATCH_SIZE = 64;
+	private static final int MIN_SAMPLES = 1024;
+
+	private final int nodes;
+	private final IntToDoubleFunction nodeValue;
+	private final SplittableRandom rand;
+	private final double targetError;
+	private final double z;
+	private final int maxSamples;
+
+	/**
+	 * @param nodes
+	 *            Number of nodes to sample from
+	 * @param nodeValue
+	 *            Value of a single node
+	 * @param rand
+	 * @param targetError
+	 *            Half width of the confidence interval to reach
+	 * @param z
+	 *            Standard normal quantile of the confidence level
+	 * @param maxSamples
+	 *            Samples drawn at most, capped at the number of nodes
+	 */
+	public SampledAverageAccumulator(int nodes, IntToDoubleFunction nodeValue, SplittableRandom rand, double targetError, double z, int maxSamples) {
+		this.nodes = nodes;
+		this.nodeValue = nodeValue;
+		this.rand = rand;
+		this.targetError = targetError;
+		this.z = z;
+		this.maxSamples = Math.min(maxSamples, nodes);
+	}
+
+	@Override
+	void accumulate(int from, int to) {
+		// Nodes are sampled only for the result
+	}
+
+	@Override
+	void combine(PropertyAccumulator other) {
+	}
+
+	@Override
+	Object result() {
+		if (nodes == 0)
+			return new Estimate(0, 0);
+
+		// Welford running mean and sum of squared deviations
+		long count = 0;
+		double mean = 0;
+		double m2 = 0;
+		double error = Double.POSITIVE_INFINITY;
+
+		while (count < maxSamples && (count < MIN_SAMPLES || error > targetError)) {
+			for (int i = 0; i < BATCH_SIZE && count < maxSamples; i++) {
+				double x = nodeValue.applyAsDouble(rand.nextInt(nodes));
+				count++;
+				double delta = x - mean;
+				mean += delta / count;
+				m2 += delta * (x - mean);
+			}
+			error = (count > 1) ? z * Math.sqrt(m2 / (count - 1) / count) : Double.POSITIVE_INFINITY;
+		}
+
+		return new Estimate((float) mean, (float) error);
+	}
+}
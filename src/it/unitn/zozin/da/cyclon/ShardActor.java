@@ -0,0 +1,150 @@
+package it.unitn.zozin.da.cyclon;
+
+import akka.actor.AbstractFSM;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import it.unitn.zozin.da.cyclon.GraphActor.EndBootMessage;
+import it.unitn.zozin.da.cyclon.GraphActor.StartBootMessage;
+import it.unitn.zozin.da.cyclon.GraphActor.StartResumeMessage;
+import it.unitn.zozin.da.cyclon.NodeActor.EndRound;
+import it.unitn.zozin.da.cyclon.NodeActor.StartCheckpointMessage;
+import it.unitn.zozin.da.cyclon.NodeActor.StartMeasureMessage;
+import it.unitn.zozin.da.cyclon.NodeActor.StartRound;
+
+/**
+ * Actor supervising a contiguous slice of the node ids, either directly or
+ * through child shards. Start messages are fanned out to the children and
+ * their completions are counted locally, so that the parent receives a
+ * single completion per shard.
+ */
+public class ShardActor extends AbstractFSM<ShardActor.State, Object> {
+
+	enum State {
+		Adding, Idle, BootRunning, RoundRunning
+	}
+
+	{
+		when(State.Adding, matchEvent(NodesAdded.class, (addedMsg, data) -> processChildCompleted(addedMsg)));
+
+		when(State.Idle, matchEvent(StartBootMessage.class, (bootMsg, data) -> startBoot(bootMsg)));
+		when(State.Idle, matchEvent(StartResumeMessage.class, (resumeMsg, data) -> fanOut(resumeMsg, State.BootRunning)));
+		when(State.BootRunning, matchEvent(EndBootMessage.class, (endBootMsg, data) -> processChildCompleted(endBootMsg)));
+
+		when(State.Idle, matchEvent(StartRound.class, (startRoundMsg, data) -> fanOut(startRoundMsg, State.RoundRunning)));
+		when(State.RoundRunning, matchEvent(EndRound.class, (endRoundMsg, data) -> processChildCompleted(endRoundMsg)));
+
+		// Measurement is completed through the snapshot buffer
+		when(State.Idle, matchEvent(StartMeasureMessage.class, (startMeasureMsg, data) -> fanOut(startMeasureMsg, State.Idle)));
+
+		// Checkpoint is completed through the checkpoint writer
+		when(State.Idle, matchEvent(StartCheckpointMessage.class, (checkpointMsg, data) -> fanOut(checkpointMsg, State.Idle)));
+	}
+
+	private final NodeRegistry nodes;
+	private final int firstNode;
+	private final int lastNode;
+	private final int fanout;
+	private final int cacheSize;
+	private final int shuffleLength;
+	private final RandomStreams streams;
+	private final SimulationMetrics metrics;
+
+	private ActorRef[] children;
+
+	// Children still to complete the current task
+	private int pending;
+
+	/**
+	 * @param nodes
+	 *            Registry where the created nodes are registered
+	 * @param firstNode
+	 *            First node id of the shard
+	 * @param lastNode
+	 *            Last node id of the shard (exclusive)
+	 * @param fanout
+	 *            Maximum number of children of a shard
+	 * @param cacheSize
+	 * @param shuffleLength
+	 * @param streams
+	 *            Source of the random streams of the nodes
+	 * @param metrics
+	 *            Metrics updated by the nodes
+	 */
+	public ShardActor(NodeRegistry nodes, int firstNode, int lastNode, int fanout, int cacheSize, int shuffleLength, RandomStreams streams, SimulationMetrics metrics) {
+		this.nodes = nodes;
+		this.firstNode = firstNode;
+		this.lastNode = lastNode;
+		this.fanout = fanout;
+		this.cacheSize = cacheSize;
+		this.shuffleLength = shuffleLength;
+		this.streams = streams;
+		this.metrics = metrics;
+
+		// A leaf shard is ready as soon as it has created its nodes
+		startWith(isLeaf() ? State.Idle : State.Adding, null);
+	}
+
+	private boolean isLeaf() {
+		return lastNode - firstNode <= fanout;
+	}
+
+	@Override
+	public void preStart() throws Exception {
+		int size = lastNode - firstNode;
+
+		if (isLeaf()) {
+			// Leaf shard, owns the node actors
+			children = new ActorRef[size];
+			for (int i = 0; i < size; i++) {
+				int id = firstNode + i;
+				Props nodeProps = Props.create(NodeActor.class, id, cacheSize, shuffleLength, streams.forNode(id), metrics);
+				children[i] = context().actorOf(nodeProps.withDispatcher(DispatcherProfiles.NODE_DISPATCHER).withMailbox(DispatcherProfiles.NODE_MAILBOX), Integer.toString(id));
+				nodes.register(id, children[i]);
+			}
+			context().parent().tell(new NodesAdded(), self());
+		} else {
+			// Split the slice into fanout balanced sub slices
+			children = new ActorRef[fanout];
+			for (int i = 0; i < fanout; i++) {
+				int first = firstNode + (int) ((long) size * i / fanout);
+				int last = firstNode + (int) ((long) size * (i + 1) / fanout);
+				Props shardProps = Props.create(ShardActor.class, nodes, first, last, fanout, cacheSize, shuffleLength, streams, metrics);
+				children[i] = context().actorOf(shardProps.withDispatcher(DispatcherProfiles.NODE_DISPATCHER), "shard-" + first);
+			}
+			pending = fanout;
+		}
+	}
+
+	private akka.actor.FSM.State<State, Object> fanOut(Object startMsg, State runningState) {
+		for (ActorRef c : children)
+			c.tell(startMsg, self());
+
+		pending = children.length;
+		return goTo(runningState);
+	}
+
+	private akka.actor.FSM.State<State, Object> startBoot(StartBootMessage bootMsg) {
+		if (!isLeaf())
+			return fanOut(bootMsg, State.BootRunning);
+
+		// Each node receives only its own introducers
+		for (int i = 0; i < children.length; i++)
+			children[i].tell(new NodeActor.StartBootMessage(bootMsg.nodes, bootMsg.introducers.of(firstNode + i)), self());
+
+		pending = children.length;
+		return goTo(State.BootRunning);
+	}
+
+	private akka.actor.FSM.State<State, Object> processChildCompleted(Object endMsg) {
+		pending--;
+		if (pending == 0) {
+			context().parent().tell(endMsg, self());
+			return goTo(State.Idle);
+		}
+		return stay();
+	}
+
+	public static class NodesAdded {
+
+	}
+}
@@ -0,0 +1,153 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.Arrays;
+
+/**
+ * Exact shortest path lengths over the unweighted overlay graph
+ */
+class ShortestPaths {
+
+	enum Engine {
+		/**
+		 * Queue based BFS from every single source
+		 */
+		BFS,
+		/**
+		 * BFS advancing 64 sources at once, one bit per source
+		 */
+		BITPARALLEL
+	}
+
+	// Number of sources visited together by the bit-parallel BFS
+	static final int BLOCK_SIZE = Long.SIZE;
+
+	private final AdjacencySnapshot graph;
+
+	// Distance sums of the sources, computed one block at a time
+	private final long[][] blocks;
+
+	ShortestPaths(AdjacencySnapshot graph) {
+		this.graph = graph;
+		this.blocks = new long[(graph.size() + BLOCK_SIZE - 1) / BLOCK_SIZE][];
+	}
+
+	/**
+	 * Sum of the shortest path lengths from the source to all the nodes
+	 * reachable from it, computed by the bit-parallel BFS of the block the
+	 * source belongs to. Every block is computed only once.
+	 *
+	 * @param src
+	 * @return the sum of the distances
+	 */
+	long distanceSum(int src) {
+		int block = src / BLOCK_SIZE;
+		long[] sums;
+		synchronized (blocks) {
+			sums = blocks[block];
+		}
+
+		if (sums == null) {
+			int first = block * BLOCK_SIZE;
+			sums = distanceSums(graph, first, Math.min(BLOCK_SIZE, graph.size() - first));
+			synchronized (blocks) {
+				blocks[block] = sums;
+			}
+		}
+
+		return sums[src % BLOCK_SIZE];
+	}
+
+	/**
+	 * Sum of the shortest path lengths from the source to all the nodes
+	 * reachable from it
+	 *
+	 * @param graph
+	 * @param src
+	 * @return the sum of the distances
+	 */
+	static long distanceSum(AdjacencySnapshot graph, int src) {
+		int[] starts = graph.starts();
+		int[] ends = graph.ends();
+		int[] targets = graph.targets();
+
+		int[] dist = new int[graph.size()];
+		int[] queue = new int[graph.size()];
+		Arrays.fill(dist, -1);
+
+		dist[src] = 0;
+		queue[0] = src;
+		int head = 0, tail = 1;
+		long sum = 0;
+
+		while (head < tail) {
+			int v = queue[head++];
+			int nextDist = dist[v] + 1;
+			for (int e = starts[v]; e < ends[v]; e++) {
+				int w = targets[e];
+				if (dist[w] < 0) {
+					dist[w] = nextDist;
+					sum += nextDist;
+					queue[tail++] = w;
+				}
+			}
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Sums of the shortest path lengths from each of the count consecutive
+	 * sources starting at first. Each node keeps a mask of the sources that
+	 * reached it, so a single scan of the edges advances all the sources by
+	 * one hop.
+	 *
+	 * @param graph
+	 * @param first
+	 * @param count
+	 *            at most {@link #BLOCK_SIZE}
+	 * @return the sum of the distances of every source
+	 */
+	static long[] distanceSums(AdjacencySnapshot graph, int first, int count) {
+		int[] starts = graph.starts();
+		int[] ends = graph.ends();
+		int[] targets = graph.targets();
+		int n = graph.size();
+
+		long[] seen = new long[n];
+		long[] frontier = new long[n];
+		long[] next = new long[n];
+		long[] sums = new long[count];
+
+		for (int b = 0; b < count; b++) {
+			seen[first + b] = 1L << b;
+			frontier[first + b] = 1L << b;
+		}
+
+		boolean advanced = true;
+		for (int level = 1; advanced; level++) {
+			for (int v = 0; v < n; v++) {
+				long f = frontier[v];
+				if (f == 0)
+					continue;
+				for (int e = starts[v]; e < ends[v]; e++)
+					next[targets[e]] |= f;
+			}
+
+			advanced = false;
+			for (int w = 0; w < n; w++) {
+				long reached = next[w] & ~seen[w];
+				next[w] = 0;
+				frontier[w] = reached;
+				if (reached == 0)
+					continue;
+
+				advanced = true;
+				seen[w] |= reached;
+				for (; reached != 0; reached &= reached - 1)
+					sums[Long.numberOfTrailingZeros(reached)] += level;
+			}
+		}
+
+		return sums;
+	}
+}
@@ -2,25 +2,19 @@ package it.unitn.zozin.da.cyclon;
 
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Map;
-import java.util.NavigableSet;
+import java.util.LinkedHashSet;
 import java.util.Properties;
-import java.util.Random;
 import java.util.Set;
-import java.util.TreeSet;
-import java.util.function.Function;
+import java.util.SplittableRandom;
 import java.util.logging.Level;
-import java.util.stream.Collectors;
 import akka.actor.AbstractFSM;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.actor.Status;
 import it.unitn.zozin.da.cyclon.GraphActor.EndAddNodesMessage;
 import it.unitn.zozin.da.cyclon.GraphActor.EndBootMessage;
+import it.unitn.zozin.da.cyclon.GraphActor.EndCheckpointMessage;
 import it.unitn.zozin.da.cyclon.GraphActor.RoundData;
 import it.unitn.zozin.da.cyclon.NodeActor.EndRound;
 import it.unitn.zozin.da.cyclon.NodeActor.StartRound;
@@ -32,7 +26,7 @@ import it.unitn.zozin.da.cyclon.SimulationActor.SimulationStateData;
 class SimulationActor extends AbstractFSM<SimulationActor.State, SimulationStateData> {
 
 	enum State {
-		Idle, NodesAdding, NodesBoot, RoundRunning, MeasureRunning
+		Idle, NodesAdding, NodesBoot, RoundRunning, MeasureRunning, CheckpointRunning
 	}
 
 	private static final int BOOT_ROUND = 0;
@@ -50,6 +44,9 @@ class SimulationActor extends AbstractFSM<SimulationActor.State, SimulationState
 		// Run simulation
 		when(State.RoundRunning, matchEvent(EndRound.class, SimulationStateData.class, (endRoundMsg, simState) -> processCyclonRoundEnded(endRoundMsg, simState)));
 		when(State.MeasureRunning, matchEvent(RoundData.class, SimulationStateData.class, (measureMsg, simState) -> processMeasure(measureMsg, simState)));
+		when(State.MeasureRunning, matchEvent(Status.Failure.class, (failure, data) -> abortSimulation(failure)));
+		when(State.CheckpointRunning, matchEvent(EndCheckpointMessage.class, SimulationStateData.class, (endCheckpointMsg, simState) -> executeNextRound(simState)));
+		when(State.CheckpointRunning, matchEvent(Status.Failure.class, (failure, data) -> abortSimulation(failure)));
 
 	}
 
@@ -58,22 +55,21 @@ class SimulationActor extends AbstractFSM<SimulationActor.State, SimulationState
 		private final int total;
 		private int current = 0;
 
-		final List<RoundData> simData = new LinkedList<RoundData>();
-
 		public SimulationStateData(int total) {
 			this.total = total;
 		}
 
+		public SimulationStateData(int total, int current) {
+			this.total = total;
+			this.current = current;
+		}
+
 		public boolean isLast() {
 			return current == total - 1;
 		}
 
 		public boolean isCompleted() {
-			return current == total;
-		}
-
-		public void addData(RoundData data) {
-			simData.add(data);
+			return current >= total;
 		}
 
 		public void increaseRound() {
@@ -90,39 +86,74 @@ class SimulationActor extends AbstractFSM<SimulationActor.State, SimulationState
 	private ActorRef simSender;
 	private Configuration conf;
 
-	public static ActorRef newActor(ActorSystem sys) {
-		return sys.actorOf(Props.create(SimulationActor.class), "control");
+	// Last round completed before the checkpoint the simulation is resumed
+	// from, if any
+	private int resumedRound = -1;
+
+	private final SimulationMetrics metrics;
+
+	// Where the measured rounds are written, if any
+	private final ResultWriter results;
+
+	public SimulationActor(SimulationMetrics metrics, ResultWriter results) {
+		this.metrics = metrics;
+		this.results = results;
+	}
+
+	public static ActorRef newActor(ActorSystem sys, String name, SimulationMetrics metrics, ResultWriter results) {
+		return sys.actorOf(Props.create(SimulationActor.class, metrics, results).withDispatcher(DispatcherProfiles.COORDINATOR_DISPATCHER), name);
 	}
 
 	@Override
 	public void preStart() throws Exception {
-		GRAPH = context().actorOf(Props.create(GraphActor.class), "graph");
+		GRAPH = context().actorOf(Props.create(GraphActor.class).withDispatcher(DispatcherProfiles.COORDINATOR_DISPATCHER), "graph");
 	}
 
 	private akka.actor.FSM.State<State, SimulationStateData> initSimulation(Configuration conf) {
 		simSender = sender();
 		this.conf = conf;
 
-		GRAPH.tell(new GraphActor.StartAddNodesMessage(conf.NODES, conf.CYCLON_CACHE_SIZE, conf.CYCLON_SHUFFLE_LENGTH), self());
+		GRAPH.tell(new GraphActor.StartAddNodesMessage(conf.NODES, conf.CYCLON_CACHE_SIZE, conf.CYCLON_SHUFFLE_LENGTH, conf.SHARD_FANOUT, conf.RANDOM, metrics, conf.DISPATCHERS.COMPUTE_THREADS), self());
 		return goTo(State.NodesAdding);
 	}
 
-	private akka.actor.FSM.State<State, SimulationStateData> executeNodesBoot(Set<ActorRef> addedNodes) {
+	private akka.actor.FSM.State<State, SimulationStateData> executeNodesBoot(NodeRegistry addedNodes) {
+		if (conf.RESUME_FROM != null)
+			return executeNodesResume(addedNodes);
+
 		Main.LOGGER.log(Level.INFO, "Executing [BOOT]... ");
 
-		NavigableSet<ActorRef> actorIds = new TreeSet<ActorRef>(Comparator.comparingInt(GraphActor::actorToInt));
-		actorIds.addAll(addedNodes);
+		// Defines the introducers of each added node
+		BootIntroducers introducers = conf.BOOT_TOPOLOGY.generate(conf, conf.RANDOM.forTopology());
+
+		GRAPH.tell(new GraphActor.StartBootMessage(addedNodes, introducers), self());
+
+		return goTo(State.NodesBoot);
+	}
+
+	private akka.actor.FSM.State<State, SimulationStateData> executeNodesResume(NodeRegistry addedNodes) {
+		Main.LOGGER.log(Level.INFO, "Resuming from " + conf.RESUME_FROM + "... ");
 
-		// Defines the introducer for each added node
-		Map<ActorRef, ActorRef> introducers = actorIds.stream().collect(Collectors.toMap(Function.identity(), (n) -> conf.BOOT_TOPOLOGY.getIntroducerNode(actorIds, n)));
+		Checkpoint.Reader checkpoint;
+		try {
+			checkpoint = new Checkpoint.Reader(conf.RESUME_FROM, conf.NODES, conf.CYCLON_CACHE_SIZE);
+		} catch (IOException e) {
+			return abortSimulation(new Status.Failure(e));
+		}
+		resumedRound = checkpoint.round();
 
-		GRAPH.tell(new GraphActor.StartBootMessage(introducers), self());
+		GRAPH.tell(new GraphActor.StartResumeMessage(addedNodes, checkpoint), self());
 
 		return goTo(State.NodesBoot);
 	}
 
 	private akka.actor.FSM.State<State, SimulationStateData> startSimulation() {
 		Main.LOGGER.log(Level.INFO, "[completed]\n");
+
+		// The checkpoint round has already been measured
+		if (resumedRound >= 0)
+			return executeNextRound(new SimulationStateData(conf.ROUNDS + 1, resumedRound));
+
 		return executeMeasure(new SimulationStateData(conf.ROUNDS + 1));
 	}
 
@@ -138,21 +169,44 @@ class SimulationActor extends AbstractFSM<SimulationActor.State, SimulationState
 		else
 			Main.LOGGER.log(Level.INFO, "Measuring round " + simState.getRound() + "... ");
 
-		GRAPH.tell(new GraphActor.StartMeasureMessage(conf.MEASURE), self());
+		GRAPH.tell(new GraphActor.StartMeasureMessage(conf.MEASURES, conf.MEASURE_SETTINGS), self());
 		return goTo(State.MeasureRunning).using(simState);
 	}
 
 	private akka.actor.FSM.State<State, SimulationStateData> processMeasure(RoundData roundMeasureMsg, SimulationStateData simState) {
 		Main.LOGGER.log(Level.INFO, "[completed] -> " + roundMeasureMsg + "\n");
-		simState.addData(roundMeasureMsg);
+		if (results != null) {
+			try {
+				results.write(simState.getRound(), roundMeasureMsg);
+			} catch (IOException e) {
+				return abortSimulation(new Status.Failure(e));
+			}
+		}
 		return controlSimulationRoundEnd(simState);
 	}
 
+	private akka.actor.FSM.State<State, SimulationStateData> abortSimulation(Status.Failure failure) {
+		Main.LOGGER.log(Level.SEVERE, "[failed]\n", failure.cause());
+		simSender.tell(failure, self());
+		return goTo(State.Idle);
+	}
+
 	private akka.actor.FSM.State<State, SimulationStateData> controlSimulationRoundEnd(SimulationStateData simState) {
+		metrics.endRound(simState.getRound(), conf.NODES, conf.CYCLON_CACHE_SIZE);
+
+		if (conf.isCheckpointRound(simState.getRound())) {
+			GRAPH.tell(new GraphActor.StartCheckpointMessage(conf.CHECKPOINT_FILE, simState.getRound()), self());
+			return goTo(State.CheckpointRunning).using(simState);
+		}
+
+		return executeNextRound(simState);
+	}
+
+	private akka.actor.FSM.State<State, SimulationStateData> executeNextRound(SimulationStateData simState) {
 		simState.increaseRound();
 		if (simState.isCompleted()) {
 			// Send report back to simulation starter
-			simSender.tell(new SimulationDataMessage(conf, simState.simData), self());
+			simSender.tell(new SimulationDataMessage(conf), self());
 			return goTo(State.Idle);
 		} else {
 			return executeProtocolRound(simState);
@@ -177,73 +231,326 @@ class SimulationActor extends AbstractFSM<SimulationActor.State, SimulationState
 	// Simulation param message
 	public static class Configuration {
 
-		// Used to generate a random graph
-		private static final Random rand = new Random();
-
 		enum Topology {
-			CHAIN {
+			CHAIN(false) {
 
 				@Override
-				ActorRef getIntroducerNode(NavigableSet<ActorRef> nodes, ActorRef n) {
-					return (nodes.higher(n) != null) ? nodes.higher(n) : nodes.first();
+				BootIntroducers generate(Configuration conf, SplittableRandom rand) {
+					BootIntroducers out = new BootIntroducers(conf.NODES, 1);
+					for (int n = 0; n < conf.NODES; n++)
+						out.add(n, (n + 1 < conf.NODES) ? n + 1 : 0);
+					return out;
 				}
 			},
-			STAR {
+			STAR(false) {
 
 				@Override
-				ActorRef getIntroducerNode(NavigableSet<ActorRef> nodes, ActorRef n) {
-					return nodes.first();
+				BootIntroducers generate(Configuration conf, SplittableRandom rand) {
+					BootIntroducers out = new BootIntroducers(conf.NODES, 1);
+					for (int n = 0; n < conf.NODES; n++)
+						out.add(n, 0);
+					return out;
 				}
 			},
-			RANDOM {
+			RANDOM(false) {
 
 				@Override
-				ActorRef getIntroducerNode(NavigableSet<ActorRef> nodes, ActorRef n) {
-					return nodes.toArray(new ActorRef[]{})[rand.nextInt(nodes.size())];
+				BootIntroducers generate(Configuration conf, SplittableRandom rand) {
+					BootIntroducers out = new BootIntroducers(conf.NODES, 1);
+					for (int n = 0; n < conf.NODES; n++)
+						out.add(n, rand.nextInt(conf.NODES));
+					return out;
+				}
+			},
+			RING_LATTICE(true) {
+
+				@Override
+				BootIntroducers generate(Configuration conf, SplittableRandom rand) {
+					// Each node knows its closest nodes on a ring, alternating
+					// the two sides
+					int nodes = conf.NODES;
+					int k = Math.min(conf.BOOT_DEGREE, nodes - 1);
+					BootIntroducers out = new BootIntroducers(nodes, k);
+					for (int n = 0; n < nodes; n++) {
+						for (int j = 1; out.count(n) < k; j++) {
+							out.add(n, (n + j) % nodes);
+							if (out.count(n) < k)
+								out.add(n, (n - j % nodes + nodes) % nodes);
+						}
+					}
+					return out;
+				}
+			},
+			K_REGULAR(true) {
+
+				@Override
+				BootIntroducers generate(Configuration conf, SplittableRandom rand) {
+					// Union of k random permutations, so that every node
+					// introduces and is introduced by k nodes
+					int nodes = conf.NODES;
+					int k = Math.min(conf.BOOT_DEGREE, nodes - 1);
+					BootIntroducers out = new BootIntroducers(nodes, k);
+
+					int[] perm = new int[nodes];
+					for (int n = 0; n < nodes; n++)
+						perm[n] = n;
+
+					for (int layer = 0; layer < k; layer++) {
+						// A layer that cannot be repaired is drawn again
+						int shuffles = 0;
+						do {
+							if (shuffles++ == MAX_LAYER_SHUFFLES)
+								throw new IllegalArgumentException("Cannot generate a k_regular topology with bootDegree " + k + " over " + nodes + " nodes");
+
+							for (int i = nodes - 1; i > 0; i--) {
+								int j = rand.nextInt(i + 1);
+								int t = perm[i];
+								perm[i] = perm[j];
+								perm[j] = t;
+							}
+						} while (!repairLayer(perm, out, rand));
+
+						for (int n = 0; n < nodes; n++)
+							out.add(n, perm[n]);
+					}
+					return out;
+				}
+
+				/**
+				 * Repair the self loops and the duplicates of the previous
+				 * layers swapping entries of the permutation, which keeps
+				 * every node introducer of exactly one node of the layer. A
+				 * swap with an already repaired node must keep it valid.
+				 *
+				 * @return False if a node could not be repaired
+				 */
+				private boolean repairLayer(int[] perm, BootIntroducers out, SplittableRandom rand) {
+					int nodes = perm.length;
+					for (int n = 0; n < nodes; n++) {
+						int attempt = 0;
+						while (!isValid(n, perm[n], out)) {
+							if (attempt++ == MAX_REPAIR_ATTEMPTS)
+								return false;
+
+							int m = rand.nextInt(nodes);
+							if (m == n || !isValid(n, perm[m], out) || (m < n && !isValid(m, perm[n], out)))
+								continue;
+							int t = perm[n];
+							perm[n] = perm[m];
+							perm[m] = t;
+						}
+					}
+					return true;
+				}
+
+				private boolean isValid(int node, int introducer, BootIntroducers out) {
+					return introducer != node && !out.contains(node, introducer);
+				}
+			},
+			BARABASI_ALBERT(true) {
+
+				@Override
+				BootIntroducers generate(Configuration conf, SplittableRandom rand) {
+					int nodes = conf.NODES;
+					int m = Math.min(conf.BOOT_DEGREE, nodes - 1);
+					BootIntroducers out = new BootIntroducers(nodes, m);
+
+					// Endpoints of all the edges, each node appears once for
+					// each of its edges, so that a uniform endpoint is a node
+					// chosen proportionally to its degree
+					int[] endpoints = new int[2 * nodes * m];
+					int size = 0;
+
+					// Initial core of m + 1 fully connected nodes
+					int core = Math.min(m + 1, nodes);
+					for (int n = 0; n < core; n++) {
+						for (int c = 0; c < core; c++)
+							if (c != n)
+								out.add(n, c);
+						for (int i = 0; i < m; i++)
+							endpoints[size++] = n;
+					}
+
+					// Preferential attachment of the other nodes
+					for (int n = core; n < nodes; n++) {
+						while (out.count(n) < m)
+							out.add(n, endpoints[rand.nextInt(size)]);
+						for (int i = 0; i < m; i++) {
+							endpoints[size++] = out.get(n, i);
+							endpoints[size++] = n;
+						}
+					}
+					return out;
+				}
+			},
+			COMMUNITIES(true) {
+
+				@Override
+				BootIntroducers generate(Configuration conf, SplittableRandom rand) {
+					// Communities are blocks of contiguous ids, each node is
+					// introduced to random nodes of its community, replaced
+					// with probability BOOT_MIXING by random nodes of the
+					// whole overlay
+					int nodes = conf.NODES;
+					int k = Math.min(conf.BOOT_DEGREE, nodes - 1);
+					long communities = Math.min(conf.BOOT_COMMUNITIES, nodes);
+					BootIntroducers out = new BootIntroducers(nodes, k);
+
+					for (int n = 0; n < nodes; n++) {
+						long c = n * communities / nodes;
+						int first = (int) ((c * nodes + communities - 1) / communities);
+						int size = (int) (((c + 1) * nodes + communities - 1) / communities) - first;
+
+						// Communities too small to provide k nodes are mixed
+						boolean mixed = size <= k;
+						while (out.count(n) < k) {
+							int introducer = (mixed || rand.nextDouble() < conf.BOOT_MIXING) ? rand.nextInt(nodes) : first + rand.nextInt(size);
+							if (introducer != n)
+								out.add(n, introducer);
+						}
+					}
+					return out;
 				}
 			};
 
-			abstract ActorRef getIntroducerNode(NavigableSet<ActorRef> nodes, ActorRef n);
+			private static final int MAX_REPAIR_ATTEMPTS = 64;
+			private static final int MAX_LAYER_SHUFFLES = 1000;
+
+			// True if the nodes get bootDegree introducers, false for a
+			// single introducer
+			final boolean USES_BOOT_DEGREE;
+
+			Topology(boolean usesBootDegree) {
+				this.USES_BOOT_DEGREE = usesBootDegree;
+			}
+
+			/**
+			 * Generate the introducers of every node
+			 *
+			 * @param conf
+			 *            Configuration of the simulation, nodes and boot
+			 *            parameters
+			 * @param rand
+			 *            Random stream of the topology generator
+			 * @return the introducers, indexed by the dense node ids
+			 */
+			abstract BootIntroducers generate(Configuration conf, SplittableRandom rand);
 		};
 
+		enum Engine {
+			ACTOR, KERNEL
+		}
+
+		enum RoundMode {
+			SYNC, ASYNC
+		}
+
 		public Topology BOOT_TOPOLOGY;
+		int BOOT_DEGREE;
+		int BOOT_COMMUNITIES;
+		double BOOT_MIXING;
+		RandomStreams RANDOM;
 		int NODES;
 		int ROUNDS;
 		int CYCLON_CACHE_SIZE;
 		int CYCLON_SHUFFLE_LENGTH;
-		GraphProperty MEASURE;
+		int SHARD_FANOUT;
+		DispatcherProfiles DISPATCHERS;
+		Engine ENGINE;
+		KernelSimulation.Mode KERNEL_MODE;
+		int KERNEL_THREADS;
+		RoundMode ROUND_MODE;
+		double ASYNC_JITTER;
+		GraphProperty[] MEASURES;
+		MeasureSettings MEASURE_SETTINGS;
 		boolean FINAL_MEASURE_MODE;
+		int CHECKPOINT_EVERY;
+		String CHECKPOINT_FILE;
+		String RESUME_FROM;
+		ResultWriter.Format OUTPUT_FORMAT;
 
 		public void load(FileInputStream inStream) throws IOException {
 			Properties props = new Properties();
 			props.load(inStream);
+			load(props);
+		}
+
+		public void load(Properties props) {
+			// Without a seed every run is different, the seed used is written
+			// in the output to reproduce the run
+			String seed = props.getProperty("seed");
+			RANDOM = new RandomStreams((seed != null) ? Long.parseLong(seed.trim()) : new SplittableRandom().nextLong());
+
 			NODES = Integer.parseInt(props.getProperty("nodes"));
 			ROUNDS = Integer.parseInt(props.getProperty("rounds"));
-			BOOT_TOPOLOGY = Topology.valueOf(props.getProperty("topology").toUpperCase());
+			BOOT_TOPOLOGY = Topology.valueOf(props.getProperty("topology").trim().toUpperCase());
 
 			CYCLON_CACHE_SIZE = Integer.parseInt(props.getProperty("cyclonCache"));
 			CYCLON_SHUFFLE_LENGTH = Integer.parseInt(props.getProperty("cyclonShuffle"));
 
-			MEASURE = GraphProperty.valueOf(props.getProperty("measureType").trim().toUpperCase());
+			BOOT_DEGREE = Integer.parseInt(props.getProperty("bootDegree", "4").trim());
+			if (BOOT_TOPOLOGY.USES_BOOT_DEGREE && (BOOT_DEGREE < 1 || BOOT_DEGREE > CYCLON_CACHE_SIZE))
+				throw new IllegalArgumentException("bootDegree must be in [1, cyclonCache]");
+			BOOT_COMMUNITIES = Integer.parseInt(props.getProperty("bootCommunities", "10").trim());
+			if (BOOT_COMMUNITIES < 1)
+				throw new IllegalArgumentException("bootCommunities must be at least 1");
+			BOOT_MIXING = Double.parseDouble(props.getProperty("bootMixing", "0.05").trim());
+
+			SHARD_FANOUT = Integer.parseInt(props.getProperty("shardFanout", "64").trim());
+			if (SHARD_FANOUT < 2)
+				throw new IllegalArgumentException("shardFanout must be at least 2");
+
+			DISPATCHERS = new DispatcherProfiles(props);
+
+			ENGINE = Engine.valueOf(props.getProperty("engine", "actor").trim().toUpperCase());
+			KERNEL_MODE = KernelSimulation.Mode.valueOf(props.getProperty("kernelMode", "sequential").trim().toUpperCase());
+			KERNEL_THREADS = Integer.parseInt(props.getProperty("kernelThreads", Integer.toString(Runtime.getRuntime().availableProcessors())).trim());
+			if (KERNEL_THREADS < 1)
+				throw new IllegalArgumentException("kernelThreads must be at least 1");
+
+			ROUND_MODE = RoundMode.valueOf(props.getProperty("roundMode", "sync").trim().toUpperCase());
+			if (ROUND_MODE == RoundMode.ASYNC && ENGINE != Engine.KERNEL)
+				throw new IllegalArgumentException("roundMode=async requires engine=kernel");
+			ASYNC_JITTER = Double.parseDouble(props.getProperty("asyncJitter", "0.5").trim());
+			if (ASYNC_JITTER < 0 || ASYNC_JITTER >= 1)
+				throw new IllegalArgumentException("asyncJitter must be in [0, 1)");
+
+			// All the listed properties are measured on the same snapshots
+			Set<GraphProperty> measures = new LinkedHashSet<GraphProperty>();
+			for (String measure : props.getProperty("measureType").split(","))
+				measures.add(GraphProperty.valueOf(measure.trim().toUpperCase()));
+			MEASURES = measures.toArray(new GraphProperty[measures.size()]);
+			MEASURE_SETTINGS = new MeasureSettings(props, RANDOM.forMeasure());
 
 			FINAL_MEASURE_MODE = props.getProperty("measureMode", "final").equalsIgnoreCase("final");
+			OUTPUT_FORMAT = ResultWriter.Format.valueOf(props.getProperty("outputFormat", "text").trim().toUpperCase());
+
+			CHECKPOINT_EVERY = Integer.parseInt(props.getProperty("checkpointEvery", "0").trim());
+			CHECKPOINT_FILE = props.getProperty("checkpointFile", "CHECKPOINT.bin").trim();
+			RESUME_FROM = props.getProperty("resumeFrom");
+			if (RESUME_FROM != null)
+				RESUME_FROM = RESUME_FROM.trim();
+		}
+
+		/**
+		 * @return True if the state has to be checkpointed after the round
+		 */
+		boolean isCheckpointRound(int round) {
+			return CHECKPOINT_EVERY > 0 && round > 0 && round % CHECKPOINT_EVERY == 0;
 		}
 	}
 
 	public static class SimulationDataMessage {
 
 		final Configuration conf;
-		final Map<Integer, RoundData> simData = new HashMap<Integer, RoundData>();
 
-		public SimulationDataMessage(Configuration conf, List<RoundData> simData) {
+		public SimulationDataMessage(Configuration conf) {
 			this.conf = conf;
-			for (int round = 0; round < simData.size(); round++)
-				this.simData.put(round, simData.get(round));
 		}
 
 		@Override
 		public String toString() {
-			return "SimulationDataMessage [conf=" + conf + ", simData=" + simData + "]";
+			return "SimulationDataMessage [conf=" + conf + "]";
 		}
 	}
 }
\ No newline at end of file
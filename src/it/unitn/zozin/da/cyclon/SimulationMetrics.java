@@ -0,0 +1,187 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Execution metrics of a simulation run: the time spent in each phase and
+ * the protocol counters of the nodes. Counters are updated concurrently by
+ * the nodes without contention and are reported (and reset) at the end of
+ * every round, while the totals of the whole run are kept.
+ */
+class SimulationMetrics {
+
+	enum Phase {
+		ADD, BOOT, ROUND, MEASURE, CALC
+	}
+
+	enum MessageType {
+		JOIN, JOIN_FORWARD, JOIN_ANSWER, REQUEST, ANSWER
+	}
+
+	private final LongAdder[] phaseNanos = newAdders(Phase.values().length);
+	private final LongAdder[] messages = newAdders(MessageType.values().length);
+
+	// Hops of the join random walks
+	private final LongAdder joinHops = new LongAdder();
+
+	// Answers completed with entries of the pending request
+	private final LongAdder shortFilled = new LongAdder();
+
+	// Nodes completing the round, their completion time since the round
+	// start and their cache occupancy
+	private final LongAdder roundNodes = new LongAdder();
+	private final LongAdder roundCompletionNanos = new LongAdder();
+	private final LongAdder cacheEntries = new LongAdder();
+
+	private volatile long roundStart;
+
+	// Totals of the reported rounds
+	private final long[] totalPhaseNanos = new long[Phase.values().length];
+	private final long[] totalMessages = new long[MessageType.values().length];
+
+	private final PrintWriter report;
+
+	/**
+	 * Metrics without per round report
+	 */
+	SimulationMetrics() {
+		this(null);
+	}
+
+	/**
+	 * @param report
+	 *            Where to write the per round metrics
+	 */
+	SimulationMetrics(PrintWriter report) {
+		this.report = report;
+		if (report != null)
+			report.write("#round roundMs barrierWaitMs measureMs calcMs join joinForward joinAnswer request answer joinHops shortFilled cacheFill\n");
+	}
+
+	private static LongAdder[] newAdders(int count) {
+		LongAdder[] adders = new LongAdder[count];
+		for (int i = 0; i < count; i++)
+			adders[i] = new LongAdder();
+		return adders;
+	}
+
+	/**
+	 * @return The start time of a phase, to be passed to
+	 *         {@link #record(Phase, long)}
+	 */
+	long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * Add the time elapsed since the start time to the phase
+	 *
+	 * @param phase
+	 * @param start
+	 */
+	void record(Phase phase, long start) {
+		phaseNanos[phase.ordinal()].add(System.nanoTime() - start);
+	}
+
+	void countMessage(MessageType type) {
+		messages[type.ordinal()].increment();
+	}
+
+	void countMessages(MessageType type, int count) {
+		messages[type.ordinal()].add(count);
+	}
+
+	void countJoinHops(int hops) {
+		joinHops.add(hops);
+	}
+
+	void countShortFilled() {
+		shortFilled.increment();
+	}
+
+	/**
+	 * Mark the start of a protocol round
+	 */
+	void startRound() {
+		roundStart = System.nanoTime();
+	}
+
+	/**
+	 * Record the completion of the round by a node
+	 *
+	 * @param cacheSize
+	 *            Entries in the node cache at the end of the round
+	 */
+	void nodeRoundCompleted(int cacheSize) {
+		roundCompletionNanos.add(System.nanoTime() - roundStart);
+		roundNodes.increment();
+		cacheEntries.add(cacheSize);
+	}
+
+	/**
+	 * Record the cache occupancy of nodes not reporting their round
+	 * completion
+	 *
+	 * @param entries
+	 */
+	void countCacheEntries(long entries) {
+		cacheEntries.add(entries);
+	}
+
+	long phaseNanos(Phase phase) {
+		return totalPhaseNanos[phase.ordinal()] + phaseNanos[phase.ordinal()].sum();
+	}
+
+	long messages() {
+		long sum = 0;
+		for (int i = 0; i < messages.length; i++)
+			sum += totalMessages[i] + messages[i].sum();
+		return sum;
+	}
+
+	/**
+	 * Report the metrics of a round and reset the per round counters. Must
+	 * not be called concurrently with the round execution.
+	 *
+	 * @param round
+	 * @param nodes
+	 * @param cacheSize
+	 *            Capacity of the node caches
+	 */
+	void endRound(int round, int nodes, int cacheSize) {
+		long[] phases = new long[phaseNanos.length];
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = phaseNanos[i].sumThenReset();
+			totalPhaseNanos[i] += phases[i];
+		}
+
+		long[] sent = new long[messages.length];
+		for (int i = 0; i < sent.length; i++) {
+			sent[i] = messages[i].sumThenReset();
+			totalMessages[i] += sent[i];
+		}
+
+		// Average time a node spent waiting for the others at the end of
+		// the round
+		long completed = roundNodes.sumThenReset();
+		long completionNanos = roundCompletionNanos.sumThenReset();
+		double barrierWait = (completed > 0) ? phases[Phase.ROUND.ordinal()] - (double) completionNanos / completed : 0;
+		double cacheFill = (double) cacheEntries.sumThenReset() / ((long) nodes * cacheSize);
+
+		long hops = joinHops.sumThenReset();
+		long filled = shortFilled.sumThenReset();
+
+		if (report == null)
+			return;
+
+		report.write(String.format(Locale.ROOT, "%d %.3f %.3f %.3f %.3f %d %d %d %d %d %d %d %.4f\n", round, phases[Phase.ROUND.ordinal()] / 1e6, barrierWait / 1e6, phases[Phase.MEASURE.ordinal()] / 1e6, phases[Phase.CALC.ordinal()] / 1e6, sent[MessageType.JOIN.ordinal()], sent[MessageType.JOIN_FORWARD.ordinal()], sent[MessageType.JOIN_ANSWER.ordinal()], sent[MessageType.REQUEST.ordinal()], sent[MessageType.ANSWER.ordinal()], hops, filled, cacheFill));
+		report.flush();
+	}
+
+	void close() {
+		if (report != null)
+			report.close();
+	}
+}
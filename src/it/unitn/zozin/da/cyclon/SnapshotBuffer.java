@@ -0,0 +1,83 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import akka.actor.ActorRef;
+
+/**
+ * Pre-sized buffer where every node writes the changes in its neighbors for
+ * a measurement, in the slot of its id. Instead of replying to the
+ * collector, nodes count down the pending writes and the last one notifies
+ * the collector with a single message. The ids of the nodes with changes are
+ * listed, so that only their rows are patched.
+ */
+class SnapshotBuffer {
+
+	private final int[][] added;
+	private final int[][] removed;
+	private final AtomicInteger pending = new AtomicInteger();
+
+	// Nodes with changes, in [0, changedCount)
+	private final int[] changed;
+	private final AtomicInteger changedCount = new AtomicInteger();
+
+	private ActorRef collector;
+
+	SnapshotBuffer(int nodes) {
+		this.added = new int[nodes][];
+		this.removed = new int[nodes][];
+		this.changed = new int[nodes];
+	}
+
+	/**
+	 * Prepare the buffer for a new measurement
+	 *
+	 * @param collector
+	 *            Actor to notify when all the nodes have written
+	 */
+	void reset(ActorRef collector) {
+		this.collector = collector;
+		changedCount.set(0);
+		pending.set(added.length);
+	}
+
+	/**
+	 * Store the measurement of a node. The arrays must not be modified
+	 * afterwards.
+	 *
+	 * @param node
+	 * @param addedNeighbors
+	 *            Neighbors added since the previous measurement
+	 * @param removedNeighbors
+	 *            Neighbors removed since the previous measurement
+	 */
+	void put(int node, int[] addedNeighbors, int[] removedNeighbors) {
+		if (addedNeighbors.length > 0 || removedNeighbors.length > 0) {
+			added[node] = addedNeighbors;
+			removed[node] = removedNeighbors;
+			changed[changedCount.getAndIncrement()] = node;
+		}
+
+		// The atomic decrement publishes the writes to the last writer
+		if (pending.decrementAndGet() == 0)
+			collector.tell(new Completed(), ActorRef.noSender());
+	}
+
+	/**
+	 * Apply the stored changes to the rows of the changed nodes and clear the
+	 * buffer
+	 *
+	 * @param overlay
+	 */
+	void drainTo(OverlayAdjacency overlay) {
+		for (int i = 0; i < changedCount.get(); i++) {
+			int n = changed[i];
+			overlay.patch(n, added[n], removed[n]);
+			added[n] = null;
+			removed[n] = null;
+		}
+	}
+
+	public static class Completed {
+
+	}
+}
@@ -0,0 +1,215 @@
+package it.unitn.zozin.da.cyclon;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import akka.actor.ActorSystem;
+import it.unitn.zozin.da.cyclon.SimulationActor.Configuration;
+
+/**
+ * Runs a grid of simulations concurrently on a single actor system. The sweep
+ * keys of the configuration accept comma separated lists of values and a
+ * simulation is run for each combination, each one with its own simulation
+ * actor and its own output directory. The number of simulations running at
+ * the same time is bounded by the available processors and by the heap.
+ */
+class SweepRunner {
+
+	static final String[] SWEEP_KEYS = { "nodes", "cyclonCache", "cyclonShuffle", "topology" };
+
+	// Rough heap usage of a node and of a cache entry, including the
+	// measurement snapshots
+	private static final long ACTOR_NODE_BYTES = 2048;
+	private static final long KERNEL_NODE_BYTES = 128;
+	private static final long ENTRY_BYTES = 48;
+
+	// Fraction of the heap the concurrent simulations may use
+	private static final double HEAP_FRACTION = 0.75;
+
+	private final Properties props;
+	private final File output;
+	private final int maxConcurrency;
+	private final boolean sameSeed;
+
+	SweepRunner(Properties props) {
+		this.props = props;
+		this.output = new File(props.getProperty("sweepOutput", "sweep").trim());
+		this.maxConcurrency = Integer.parseInt(props.getProperty("sweepConcurrency", "0").trim());
+		this.sameSeed = Boolean.parseBoolean(props.getProperty("sweepSameSeed", "false").trim());
+	}
+
+	/**
+	 * @return True if any of the sweep keys has more than one value
+	 */
+	static boolean isSweep(Properties props) {
+		for (String key : SWEEP_KEYS) {
+			String values = props.getProperty(key);
+			if (values != null && values.contains(","))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Generate a configuration for each combination of the values of the
+	 * sweep keys
+	 */
+	static List<Properties> expand(Properties props) {
+		List<Properties> runs = new ArrayList<Properties>();
+		expand(props, 0, runs);
+		return runs;
+	}
+
+	private static void expand(Properties props, int key, List<Properties> runs) {
+		if (key == SWEEP_KEYS.length) {
+			runs.add(props);
+			return;
+		}
+
+		String values = props.getProperty(SWEEP_KEYS[key]);
+		if (values == null) {
+			expand(props, key + 1, runs);
+			return;
+		}
+
+		for (String value : values.split(",")) {
+			Properties p = new Properties();
+			p.putAll(props);
+			p.setProperty(SWEEP_KEYS[key], value.trim());
+			expand(p, key + 1, runs);
+		}
+	}
+
+	public void run(ActorSystem sys) throws IOException, InterruptedException {
+		List<Properties> runProps = expand(props);
+
+		if (!output.isDirectory() && !output.mkdirs())
+			throw new IOException("Cannot create sweep output " + output);
+
+		// Every run gets its own seed derived from the sweep one, unless the
+		// runs have to share the same random choices
+		String seed = props.getProperty("seed");
+		long sweepSeed = (seed != null) ? Long.parseLong(seed.trim()) : new SplittableRandom().nextLong();
+		SplittableRandom runSeeds = new SplittableRandom(sweepSeed);
+
+		// All the configurations are validated before starting any run
+		List<Configuration> runs = new ArrayList<Configuration>();
+		List<File> dirs = new ArrayList<File>();
+		for (int i = 0; i < runProps.size(); i++) {
+			File dir = new File(output, "run-" + i);
+			if (!dir.isDirectory() && !dir.mkdirs())
+				throw new IOException("Cannot create run output " + dir);
+
+			// Checkpoints of the runs must not overwrite each other
+			Properties p = runProps.get(i);
+			File checkpoint = new File(p.getProperty("checkpointFile", "CHECKPOINT.bin").trim());
+			if (!checkpoint.isAbsolute())
+				p.setProperty("checkpointFile", new File(dir, checkpoint.getPath()).getPath());
+
+			p.setProperty("seed", Long.toString(sameSeed ? sweepSeed : runSeeds.nextLong()));
+
+			Configuration conf = new Configuration();
+			conf.load(p);
+			runs.add(conf);
+			dirs.add(dir);
+		}
+
+		int concurrency = concurrency(runs);
+
+		// The compute and kernel threads are split among the concurrent runs,
+		// each run has its own pools
+		if (concurrency > 1) {
+			for (int i = 0; i < runs.size(); i++) {
+				Properties p = runProps.get(i);
+				Configuration conf = runs.get(i);
+				p.setProperty("computeThreads", Integer.toString(Math.max(1, conf.DISPATCHERS.COMPUTE_THREADS / concurrency)));
+				p.setProperty("kernelThreads", Integer.toString(Math.max(1, conf.KERNEL_THREADS / concurrency)));
+
+				conf = new Configuration();
+				conf.load(p);
+				runs.set(i, conf);
+			}
+		}
+
+		writeIndex(runs);
+
+		Main.LOGGER.log(Level.INFO, String.format("Sweep of %d runs, %d concurrent\n", runs.size(), concurrency));
+
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		try {
+			List<Future<?>> results = new ArrayList<Future<?>>();
+			for (int i = 0; i < runs.size(); i++) {
+				String name = "run-" + i;
+				Configuration conf = runs.get(i);
+				File dir = dirs.get(i);
+				results.add(executor.submit(() -> {
+					Main.LOGGER.log(Level.INFO, "Starting " + name + "\n");
+					Main.runSimulation(sys, name, conf, dir);
+					Main.LOGGER.log(Level.INFO, "Completed " + name + "\n");
+					return null;
+				}));
+			}
+
+			// A failed run does not stop the others, the sweep fails once
+			// all of them are completed
+			int failed = 0;
+			for (int i = 0; i < results.size(); i++) {
+				try {
+					results.get(i).get();
+				} catch (ExecutionException e) {
+					System.err.println("Run " + i + " failed: " + e.getCause());
+					failed++;
+				}
+			}
+			if (failed > 0)
+				throw new IOException(failed + " of " + runs.size() + " runs failed");
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * @return The number of runs executed at the same time, the configured
+	 *         one or the largest number of the biggest run fitting in the heap,
+	 *         up to the available processors
+	 */
+	private int concurrency(List<Configuration> runs) {
+		if (maxConcurrency > 0)
+			return Math.min(maxConcurrency, runs.size());
+
+		long largest = 1;
+		for (Configuration conf : runs)
+			largest = Math.max(largest, estimateHeap(conf));
+
+		long byHeap = (long) (Runtime.getRuntime().maxMemory() * HEAP_FRACTION / largest);
+		int cores = Runtime.getRuntime().availableProcessors();
+		return (int) Math.max(1, Math.min(Math.min(cores, byHeap), runs.size()));
+	}
+
+	private static long estimateHeap(Configuration conf) {
+		long nodeBytes = conf.ENGINE == Configuration.Engine.KERNEL ? KERNEL_NODE_BYTES : ACTOR_NODE_BYTES;
+		return conf.NODES * (nodeBytes + conf.CYCLON_CACHE_SIZE * ENTRY_BYTES);
+	}
+
+	/**
+	 * Write the parameters of each run directory
+	 */
+	private void writeIndex(List<Configuration> runs) throws IOException {
+		try (PrintWriter out = new PrintWriter(new File(output, "RUNS.dat"))) {
+			out.write("#run nodes cache shuffle topology engine seed\n");
+			for (int i = 0; i < runs.size(); i++) {
+				Configuration conf = runs.get(i);
+				out.write(String.format("run-%d %d %d %d %s %s %d\n", i, conf.NODES, conf.CYCLON_CACHE_SIZE, conf.CYCLON_SHUFFLE_LENGTH, conf.BOOT_TOPOLOGY, conf.ENGINE.name().toLowerCase(), conf.RANDOM.seed()));
+			}
+		}
+	}
+}
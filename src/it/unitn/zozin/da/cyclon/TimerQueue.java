@@ -0,0 +1,73 @@
+package it.unitn.zozin.da.cyclon;
+
+/**
+ * Binary min-heap of node timers ordered by virtual time. Every node has at
+ * most one pending timer, so the heap never grows beyond the number of
+ * nodes and no object is allocated per event.
+ */
+class TimerQueue {
+
+	private final double[] times;
+	private final int[] nodes;
+	private int size;
+
+	TimerQueue(int capacity) {
+		this.times = new double[capacity];
+		this.nodes = new int[capacity];
+	}
+
+	void add(double time, int node) {
+		int i = size++;
+
+		// Sift up
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (times[parent] <= time)
+				break;
+			times[i] = times[parent];
+			nodes[i] = nodes[parent];
+			i = parent;
+		}
+		times[i] = time;
+		nodes[i] = node;
+	}
+
+	boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @return The time of the next timer
+	 */
+	double peekTime() {
+		return times[0];
+	}
+
+	/**
+	 * Remove the next timer
+	 *
+	 * @return The node of the removed timer
+	 */
+	int poll() {
+		int node = nodes[0];
+		double time = times[--size];
+		int last = nodes[size];
+
+		// Sift down the last element from the root
+		int i = 0;
+		int child;
+		while ((child = 2 * i + 1) < size) {
+			if (child + 1 < size && times[child + 1] < times[child])
+				child++;
+			if (time <= times[child])
+				break;
+			times[i] = times[child];
+			nodes[i] = nodes[child];
+			i = child;
+		}
+		times[i] = time;
+		nodes[i] = last;
+
+		return node;
+	}
+}